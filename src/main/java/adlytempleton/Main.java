@@ -14,6 +14,7 @@ package adlytempleton;
 
 import adlytempleton.map.Simulator;
 import adlytempleton.map.SquareMap;
+import adlytempleton.monitor.Benchmark;
 import adlytempleton.monitor.Experiment;
 import adlytempleton.simulator.Serialization;
 import adlytempleton.simulator.SimulatorConstants;
@@ -25,7 +26,14 @@ public class Main {
     public static void main(String[] args) {
 
 
-        if (args.length == 2) {
+        if (args.length >= 2 && args[0].equals("-b")) {
+            Benchmark benchmark = new Benchmark();
+            benchmark.state = args[1];
+            if (args.length > 2) {
+                benchmark.ticks = Integer.parseInt(args[2]);
+            }
+            benchmark.run();
+        } else if (args.length == 2) {
             if (args[0].equals("-e")) {
                 Experiment e = new Experiment();
                 try {
@@ -12,7 +12,6 @@
 
 package adlytempleton.atom;
 
-import adlytempleton.map.AbstractMap;
 import adlytempleton.map.ILocation;
 import adlytempleton.reaction.ReactionData;
 import adlytempleton.simulator.SimulatorConstants;
@@ -24,84 +23,140 @@ import java.util.Arrays;
  * Created by ATempleton on 11/7/2015.
  * <p>
  * A representation of a single atom at a particular location
+ * <p>
+ * Once the atom is added to a map, it is only a handle: its type, state, location, bonds and reactions
+ * are held by the AtomStore of the map, under the id of the atom. Until then, they are held by the atom itself
  */
 public class Atom {
 
 
-    //Type and state of the atom
-    public EnumType type;
-    public int state = 0;
-    //Bonded atoms
-    public transient ArrayList<Atom> bonds = new ArrayList<>();
+    //Shared by all atoms which are constructed without reactions
+    //Safe to share, as the array is never modified in place (getReactions returns a clone)
+    private static final ReactionData[] NO_REACTIONS = new ReactionData[SimulatorConstants.ENZYME_CAPACITY];
 
-    /**
-     * This is used when loading from json
-     * To store the locations of all bonded atoms
-     * This eliminates circular refrences
-     * And allows the state to be saved and loaded
-     * <p>
-     * This contains relative locations, which should be reconstructed with ILocation.add
-     */
-    public ArrayList<ILocation> bondsLocation = new ArrayList<>();
-    //The location of the atom
-    private ILocation location;
-    //Stores a fixed-length array of all Reactions this atom acts as an enzyme for
-    //
-    private ReactionData[] reactions = new ReactionData[SimulatorConstants.ENZYME_CAPACITY];
+    private static final Atom[] NO_BONDS = new Atom[0];
+
+    //The store this atom is registered in, and its id in that store
+    //Null if the atom has not been added to a map
+    private AtomStore store;
+    private int id;
+
+    //The values of an atom which is not in a store. Null while the atom is in a store
+    private Values detached;
+
+    //The bonded component of this atom, maintained by BondComponents
+    Atom componentParent = this;
+    Atom componentNext = this;
+    int componentSize = 1;
+    boolean componentDirty;
 
 
     public Atom(EnumType type) {
-        this.type = type;
+        this(type, 0);
     }
 
     public Atom(EnumType type, int state) {
-        this.type = type;
-        this.state = state;
-        this.reactions = new ReactionData[SimulatorConstants.ENZYME_CAPACITY];
+        this(type, state, NO_REACTIONS);
     }
 
     public Atom(EnumType type, int state, ReactionData[] rxn) {
-        this.type = type;
-        this.state = state;
-        this.reactions = rxn;
+        detached = new Values(type, state, null, NO_BONDS, rxn);
     }
 
     /**
-     * Constructs bonds from bondsLocation
-     * Used when loading from json
+     * Sets the bonds of an atom loaded from json, in the order they were saved
+     * Each bond is listed by both atoms, and is only complete once the second atom has loaded it
      */
-    public void reconstructBondList(AbstractMap map) {
-        bonds = new ArrayList<>();
-        for (ILocation location : bondsLocation) {
-            Atom atomToAdd = map.getAtomAtLocation(getLocation().add(location));
-            if(atomToAdd == null){
-                throw new IllegalArgumentException();
+    public void loadBonds(Atom[] bonds) {
+        setBonds(bonds);
+        for (Atom bondedAtom : bonds) {
+            if (bondedAtom.isBondedTo(this)) {
+                bondChanged(bondedAtom, true);
             }
-            //Legacy support to load all files which stored offsets in reverse
-            //if(atomToAdd == null){
-                //Atom atomToAdd = map.getAtomAtLocation(getLocation().subtract(location));
-            //}
-            bonds.add(atomToAdd);
         }
     }
 
     /**
-     * Constructs bondsLocation data from bonds
-     * Used when saving to json
+     * Called by AtomStore when this atom is registered, after the store has taken its values
      */
-    public void updateBondLocationList() {
-        bondsLocation = new ArrayList<>();
-        for (Atom bondedAtom : bonds) {
-            bondsLocation.add(bondedAtom.getLocation().subtract(getLocation()));
+    void attach(AtomStore store, int id) {
+        this.store = store;
+        this.id = id;
+        this.detached = null;
+    }
+
+    /**
+     * Called by AtomStore when this atom is removed, with the values it held for the atom
+     */
+    void detach(Values values) {
+        this.store = null;
+        this.id = -1;
+        this.detached = values;
+    }
+
+    /**
+     * @return The values of this atom, if it is not in a store
+     */
+    Values getDetached() {
+        return detached;
+    }
+
+    /**
+     * @return The id of this atom in the AtomStore of its map, or -1 if it is not on a map
+     */
+    public int getId() {
+        return store == null ? -1 : id;
+    }
+
+    public EnumType getType() {
+        return store == null ? detached.type : store.getType(id);
+    }
+
+    public int getState() {
+        return store == null ? detached.state : store.getState(id);
+    }
+
+    public void setState(int state) {
+        if (store == null) {
+            detached.state = state;
+        } else {
+            store.setState(id, state);
         }
     }
 
+    /**
+     * @return The location of the atom. On a map, this is a new ILocation on every call
+     */
     public ILocation getLocation() {
-        return location;
+        return store == null ? detached.location : store.toLocation(id);
     }
 
     public void setLocation(ILocation location) {
-        this.location = location;
+        if (store == null) {
+            detached.location = location;
+        } else {
+            store.setLocation(id, location);
+        }
+    }
+
+    /**
+     * @return The bonded atoms, in the order they were bonded. Must not be modified
+     * The array is replaced rather than changed as bonds change, so it may be iterated while bonding or unbonding this atom
+     */
+    public Atom[] getBonds() {
+        return store == null ? detached.bonds : store.getBonds(id);
+    }
+
+    public int getBondCount() {
+        return getBonds().length;
+    }
+
+    private void setBonds(Atom[] bonds) {
+        if (store == null) {
+            detached.bonds = bonds;
+        } else {
+            store.setBonds(id, bonds);
+        }
     }
 
     /**
@@ -111,16 +166,16 @@ public class Atom {
      */
     public void unbond(Atom atom) {
         if (isBondedTo(atom)) {
-            bonds.remove(atom);
-            atom.bonds.remove(this);
+            bondChanged(atom, false);
+            removeBond(atom);
+            atom.removeBond(this);
+            //Only once neither list holds the bond, so that a rebuild of the component cannot follow it
+            if (store != null) {
+                store.bondBroken(this, atom);
+            }
         }
     }
 
-    @Override
-    public int hashCode() {
-        return location.hashCode() * state;
-    }
-
     /**
      * Bonds this atom to another atom, if they are not already bonded
      *
@@ -129,9 +184,70 @@ public class Atom {
     public void bond(Atom atom) {
 
         if (!isBondedTo(atom)) {
-            bonds.add(atom);
-            atom.bonds.add(this);
+            addBond(atom);
+            atom.addBond(this);
+            bondChanged(atom, true);
+        }
+    }
+
+    //Synchronized, as atoms on either side of a bond may be bonded by different threads of a parallel tick
+    private synchronized void addBond(Atom atom) {
+        Atom[] bonds = getBonds();
+        Atom[] newBonds = Arrays.copyOf(bonds, bonds.length + 1);
+        newBonds[bonds.length] = atom;
+        setBonds(newBonds);
+    }
+
+    private synchronized void removeBond(Atom atom) {
+        Atom[] bonds = getBonds();
+        Atom[] newBonds = new Atom[bonds.length - 1];
+        int count = 0;
+        for (Atom bondedAtom : bonds) {
+            if (bondedAtom != atom) {
+                newBonds[count++] = bondedAtom;
+            }
         }
+        setBonds(newBonds);
+    }
+
+    /**
+     * Tells the store that a bond to another atom has been formed, or is about to be broken
+     * The store is told again through AtomStore.bondBroken once a broken bond is gone
+     */
+    private void bondChanged(Atom atom, boolean bonded) {
+        if (store != null) {
+            store.bondChanged(this, atom, bonded);
+        }
+    }
+
+    /**
+     * Checks if two atoms are connected by a string of bonds
+     * An atom is connected to itself
+     */
+    public boolean isConnectedTo(Atom atom) {
+        //Answered without the lock of BondComponents, which is shared by every thread of a parallel tick
+        if (atom == this || isBondedTo(atom)) {
+            return true;
+        }
+
+        if (store != null && atom.store == store) {
+            return store.getComponents().connected(this, atom);
+        }
+
+        //Atoms outside of a map are searched directly
+        ArrayList<Atom> found = new ArrayList<>();
+        found.add(this);
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i) == atom) {
+                return true;
+            }
+            for (Atom bondedAtom : found.get(i).getBonds()) {
+                if (!found.contains(bondedAtom)) {
+                    found.add(bondedAtom);
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -141,18 +257,35 @@ public class Atom {
      * @return True if the atoms are bonded
      */
     public boolean isBondedTo(Atom otherAtom) {
-        return bonds.contains(otherAtom);
+        for (Atom bondedAtom : getBonds()) {
+            if (bondedAtom == otherAtom) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * @return A shallow clone of reactions. The shallowness of the clone is safe, as ReactionData is final.
      */
     public ReactionData[] getReactions() {
-        return Arrays.copyOf(reactions.clone(), SimulatorConstants.ENZYME_CAPACITY);
+        return Arrays.copyOf(getRawReactions(), SimulatorConstants.ENZYME_CAPACITY);
+    }
+
+    /**
+     * @return The reactions as they were set, without a copy or a change of length. Must not be modified
+     * Used when saving, so a file keeps every reaction it was loaded with
+     */
+    public ReactionData[] getRawReactions() {
+        return store == null ? detached.reactions : store.getReactions(id);
     }
 
     public void setReactions(ReactionData[] reactions) {
-        this.reactions = reactions;
+        if (store == null) {
+            detached.reactions = reactions;
+        } else {
+            store.setReactions(id, reactions);
+        }
     }
 
     /**
@@ -160,11 +293,9 @@ public class Atom {
      * Will not unbond caustic agents
      */
     public void unbondAll() {
-        if (type != EnumType.CAUSTIC) {
-            //Prevent concurrent modification exceptions
-            ArrayList<Atom> bondsCopy = (ArrayList<Atom>) bonds.clone();
-
-            for (Atom atom : bondsCopy) {
+        if (getType() != EnumType.CAUSTIC) {
+            //getBonds returns a snapshot, so unbonding while iterating is safe
+            for (Atom atom : getBonds()) {
                 unbond(atom);
             }
         }
@@ -175,6 +306,13 @@ public class Atom {
      * ie. Whether getReactions() contains any non-null elements
      */
     public boolean isEnzyme() {
+        return store == null ? hasReaction(detached.reactions) : store.isEnzyme(id);
+    }
+
+    /**
+     * @return True if the array contains any non-null elements
+     */
+    static boolean hasReaction(ReactionData[] reactions) {
         for (ReactionData rxn : reactions) {
             if (rxn != null) {
                 return true;
@@ -182,4 +320,23 @@ public class Atom {
         }
         return false;
     }
+
+    /**
+     * The values of an atom which is not in a store
+     */
+    static class Values {
+        final EnumType type;
+        int state;
+        ILocation location;
+        Atom[] bonds;
+        ReactionData[] reactions;
+
+        Values(EnumType type, int state, ILocation location, Atom[] bonds, ReactionData[] reactions) {
+            this.type = type;
+            this.state = state;
+            this.location = location;
+            this.bonds = bonds;
+            this.reactions = reactions;
+        }
+    }
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.atom;
+
+import adlytempleton.map.BondIndex;
+import adlytempleton.map.ILocation;
+import adlytempleton.map.PackedLocation;
+import adlytempleton.map.SquareLocation;
+import adlytempleton.map.ToroidalLocation;
+import adlytempleton.reaction.ReactionData;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Structure-of-arrays storage for the atoms on a map
+ * <p>
+ * Every atom added to a map is given a dense id, and its type, state, location, bonds and reactions
+ * are kept in parallel arrays indexed by that id, along with a bond count and enzyme flag.
+ * The Atom object is only a handle: its getters and setters read and write this store,
+ * so whole-map passes can scan the arrays linearly instead of chasing Atom objects
+ * <p>
+ * Locations are stored packed, and a new ILocation is built whenever an atom is asked for its location
+ */
+public class AtomStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //Cached, as EnumType.values() returns a new array on every call
+    private static final EnumType[] TYPES = EnumType.values();
+
+    private Atom[] atoms = new Atom[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] states = new int[INITIAL_CAPACITY];
+    //Locations, packed with PackedLocation
+    private int[] locations = new int[INITIAL_CAPACITY];
+    //Each array is replaced rather than changed, see Atom.getBonds
+    private Atom[][] bonds = new Atom[INITIAL_CAPACITY][];
+    private int[] bondCounts = new int[INITIAL_CAPACITY];
+    private ReactionData[][] reactions = new ReactionData[INITIAL_CAPACITY][];
+    private boolean[] enzymes = new boolean[INITIAL_CAPACITY];
+    //Whether each atom is listed in the enzyme map. This may differ from enzymes, as reactions can be changed without updating the enzyme map
+    private boolean[] catalysts = new boolean[INITIAL_CAPACITY];
+
+    //Number of atoms in the store. Ids run from 0 to size - 1
+    private int size = 0;
+
+    //The size of the torus on which locations lie, or 0 if they are plain SquareLocations
+    private int toroidalSize = 0;
+
+    //Indexes of the bonds between atoms in this store, kept up to date as atoms are bonded, unbonded and moved
+    private BondIndex[] bondIndexes = new BondIndex[0];
+
+    //Which atoms in this store are connected by bonds
+    private final BondComponents components = new BondComponents();
+
+    private final List<Atom> view = new AbstractList<Atom>() {
+        @Override
+        public Atom get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return atoms[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    /**
+     * Registers an atom with this store and assigns it the next dense id
+     * The values held by the atom are moved into the arrays
+     *
+     * @return The id of the atom
+     */
+    public int add(Atom atom) {
+        if (size == atoms.length) {
+            grow();
+        }
+
+        int id = size++;
+        Atom.Values values = atom.getDetached();
+        atoms[id] = atom;
+        types[id] = (byte) values.type.ordinal();
+        states[id] = values.state;
+        locations[id] = pack(values.location);
+        bonds[id] = values.bonds;
+        bondCounts[id] = values.bonds.length;
+        reactions[id] = values.reactions;
+        enzymes[id] = Atom.hasReaction(values.reactions);
+        catalysts[id] = false;
+        atom.attach(this, id);
+        components.add(atom);
+
+        //Bonds to atoms which are already in the store are indexed now
+        for (Atom bondedAtom : bonds[id]) {
+            if (contains(bondedAtom)) {
+                components.bond(atom, bondedAtom);
+                for (BondIndex bondIndex : bondIndexes) {
+                    bondIndex.add(atom, bondedAtom);
+                }
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Removes an atom from this store in constant time
+     * The last atom in the store is moved into the freed id, so ids are only stable while no atoms are removed
+     *
+     * @return The atom whose id changed, or null if no atom was moved
+     */
+    public Atom remove(Atom atom) {
+        int id = atom.getId();
+        assert id >= 0 && atoms[id] == atom;
+
+        for (Atom bondedAtom : bonds[id]) {
+            if (contains(bondedAtom)) {
+                for (BondIndex bondIndex : bondIndexes) {
+                    bondIndex.remove(atom, bondedAtom);
+                }
+            }
+        }
+
+        atom.detach(new Atom.Values(getType(id), states[id], toLocation(id), bonds[id], reactions[id]));
+
+        int last = --size;
+        Atom moved = null;
+
+        if (id != last) {
+            moved = atoms[last];
+            atoms[id] = moved;
+            types[id] = types[last];
+            states[id] = states[last];
+            locations[id] = locations[last];
+            bonds[id] = bonds[last];
+            bondCounts[id] = bondCounts[last];
+            reactions[id] = reactions[last];
+            enzymes[id] = enzymes[last];
+            catalysts[id] = catalysts[last];
+            moved.attach(this, id);
+        }
+
+        atoms[last] = null;
+        bonds[last] = null;
+        reactions[last] = null;
+        components.remove(atom);
+
+        return moved;
+    }
+
+    private void grow() {
+        int capacity = atoms.length * 2;
+        atoms = Arrays.copyOf(atoms, capacity);
+        types = Arrays.copyOf(types, capacity);
+        states = Arrays.copyOf(states, capacity);
+        locations = Arrays.copyOf(locations, capacity);
+        bonds = Arrays.copyOf(bonds, capacity);
+        bondCounts = Arrays.copyOf(bondCounts, capacity);
+        reactions = Arrays.copyOf(reactions, capacity);
+        enzymes = Arrays.copyOf(enzymes, capacity);
+        catalysts = Arrays.copyOf(catalysts, capacity);
+    }
+
+    void setState(int id, int state) {
+        states[id] = state;
+    }
+
+    void setLocation(int id, ILocation location) {
+        int packed = pack(location);
+        if (bondCounts[id] > 0 && packed != locations[id]) {
+            for (BondIndex bondIndex : bondIndexes) {
+                bondIndex.move(atoms[id], locations[id], packed);
+            }
+        }
+        locations[id] = packed;
+    }
+
+    /**
+     * Called by Atom after two atoms are bonded, or before they are unbonded
+     */
+    void bondChanged(Atom atom1, Atom atom2, boolean bonded) {
+        if (contains(atom1) && contains(atom2)) {
+            if (bonded) {
+                components.bond(atom1, atom2);
+            }
+
+            for (BondIndex bondIndex : bondIndexes) {
+                if (bonded) {
+                    bondIndex.add(atom1, atom2);
+                } else {
+                    bondIndex.remove(atom1, atom2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by Atom once a broken bond has been removed from the bonds of both atoms
+     */
+    void bondBroken(Atom atom1, Atom atom2) {
+        if (contains(atom1) && contains(atom2)) {
+            components.unbond(atom1, atom2);
+        }
+    }
+
+    void setBonds(int id, Atom[] bonds) {
+        this.bonds[id] = bonds;
+        bondCounts[id] = bonds.length;
+    }
+
+    void setReactions(int id, ReactionData[] reactions) {
+        this.reactions[id] = reactions;
+        enzymes[id] = Atom.hasReaction(reactions);
+    }
+
+    /**
+     * Locations of the atoms will be returned as ToroidalLocations on a torus of the given size
+     */
+    public void setToroidalSize(int toroidalSize) {
+        this.toroidalSize = toroidalSize;
+    }
+
+    /**
+     * @return A new ILocation holding the location of the atom
+     */
+    ILocation toLocation(int id) {
+        int x = PackedLocation.getX(locations[id]);
+        int y = PackedLocation.getY(locations[id]);
+        return toroidalSize > 0 ? new ToroidalLocation(x, y, toroidalSize) : new SquareLocation(x, y);
+    }
+
+    private static int pack(ILocation location) {
+        //Every map is a square grid, and atoms are given a location before they are added
+        return PackedLocation.pack((SquareLocation) location);
+    }
+
+    /**
+     * Adds an index which is kept up to date with the bonds between atoms in this store
+     * Bonds which already exist are not added
+     */
+    public void addBondIndex(BondIndex bondIndex) {
+        bondIndexes = Arrays.copyOf(bondIndexes, bondIndexes.length + 1);
+        bondIndexes[bondIndexes.length - 1] = bondIndex;
+    }
+
+    public BondComponents getComponents() {
+        return components;
+    }
+
+    /**
+     * @return True if the atom is registered in this store
+     */
+    public boolean contains(Atom atom) {
+        int id = atom.getId();
+        return id >= 0 && id < size && atoms[id] == atom;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Atom getAtom(int id) {
+        return atoms[id];
+    }
+
+    public EnumType getType(int id) {
+        return TYPES[types[id]];
+    }
+
+    public int getState(int id) {
+        return states[id];
+    }
+
+    /**
+     * @return The location of the atom, packed with PackedLocation
+     */
+    public int getLocation(int id) {
+        return locations[id];
+    }
+
+    public int getX(int id) {
+        return PackedLocation.getX(locations[id]);
+    }
+
+    public int getY(int id) {
+        return PackedLocation.getY(locations[id]);
+    }
+
+    /**
+     * @return The bonded atoms, see Atom.getBonds. Must not be modified
+     */
+    public Atom[] getBonds(int id) {
+        return bonds[id];
+    }
+
+    public int getBondCount(int id) {
+        return bondCounts[id];
+    }
+
+    /**
+     * @return The reactions of the atom, as they were set. Must not be modified
+     */
+    public ReactionData[] getReactions(int id) {
+        return reactions[id];
+    }
+
+    public boolean isEnzyme(int id) {
+        return enzymes[id];
+    }
+
+    /**
+     * Set by the spatial enzyme index of the map as the atom is added to or removed from the enzyme map
+     */
+    public void setCatalyst(int id, boolean catalyst) {
+        catalysts[id] = catalyst;
+    }
+
+    /**
+     * @return True if the atom is listed in the enzyme map
+     */
+    public boolean isCatalyst(int id) {
+        return catalysts[id];
+    }
+
+    /**
+     * Food is a free zero-state atom, with no bonds and no reactions
+     */
+    public boolean isFood(int id) {
+        return states[id] == 0 && bondCounts[id] == 0 && !enzymes[id];
+    }
+
+    /**
+     * Copies all atoms into the given buffer, in id order
+     *
+     * @param buffer Must hold at least size() elements
+     * @return The number of atoms copied
+     */
+    public int copyAtoms(Atom[] buffer) {
+        int count = size;
+        System.arraycopy(atoms, 0, buffer, 0, count);
+        return count;
+    }
+
+    /**
+     * @return A read-only view of all atoms in the store, in id order
+     * The view reflects later additions and removals, and does not copy the store
+     */
+    public List<Atom> getAtoms() {
+        return view;
+    }
+
+    /**
+     * @return A new list of all atoms in the store, in id order
+     */
+    public List<Atom> toList() {
+        //Read the size first, so a concurrent add can not expose an unfilled slot
+        int count = size;
+        return new ArrayList<>(Arrays.asList(atoms).subList(0, count));
+    }
+}
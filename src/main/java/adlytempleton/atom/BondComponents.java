@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.atom;
+
+import java.util.ArrayList;
+
+/**
+ * Tracks which atoms of an AtomStore are connected by a string of bonds
+ * <p>
+ * Components are kept in a union-find forest, with a circular list of the members of each component.
+ * Forming a bond merges two components in near-constant time.
+ * Breaking a bond only marks its component as dirty, as the component may or may not split.
+ * A dirty component is split into its true components the next time it is queried,
+ * so many bonds may break between two rebuilds
+ * <p>
+ * All methods are synchronized, as bonds may change on several threads during a parallel tick.
+ * The workers of a parallel tick therefore share this monitor. Each call holds it for a near-constant time,
+ * apart from the rebuild of a dirty component, which is linear in the size of that component.
+ * Atom.isConnectedTo answers atoms which are the same or directly bonded without calling connected
+ */
+public class BondComponents {
+
+    //Queue for rebuilding a component, reused between rebuilds
+    private final ArrayList<Atom> queue = new ArrayList<>();
+
+    /**
+     * Places a newly registered atom in a component of its own
+     */
+    public synchronized void add(Atom atom) {
+        makeSingleton(atom);
+    }
+
+    /**
+     * Called once the atom has been removed from the store
+     * The rest of its component is rebuilt without it
+     */
+    public synchronized void remove(Atom atom) {
+        find(atom).componentDirty = true;
+    }
+
+    /**
+     * Called after two atoms are bonded
+     */
+    public synchronized void bond(Atom atom1, Atom atom2) {
+        Atom root1 = find(atom1);
+        Atom root2 = find(atom2);
+        if (root1 == root2) {
+            return;
+        }
+
+        //Union by size, so that trees stay shallow
+        if (root1.componentSize < root2.componentSize) {
+            Atom t = root1;
+            root1 = root2;
+            root2 = t;
+        }
+
+        root2.componentParent = root1;
+        root1.componentSize += root2.componentSize;
+        root1.componentDirty |= root2.componentDirty;
+
+        //Splice the two circular member lists
+        Atom next = root1.componentNext;
+        root1.componentNext = root2.componentNext;
+        root2.componentNext = next;
+    }
+
+    /**
+     * Called after a bond between two atoms is broken, once neither atom lists the other in its bonds
+     * A rebuild which still saw the bond would otherwise clear the dirty mark, and the split would be missed
+     */
+    public synchronized void unbond(Atom atom1, Atom atom2) {
+        find(atom1).componentDirty = true;
+    }
+
+    /**
+     * @return True if the two atoms are connected by a string of bonds. An atom is always connected to itself
+     */
+    public synchronized boolean connected(Atom atom1, Atom atom2) {
+        Atom root = find(atom1);
+        if (root != find(atom2)) {
+            //Breaking bonds can only split components, so atoms in separate components are never connected
+            return false;
+        }
+
+        if (root.componentDirty) {
+            rebuild(root);
+            return find(atom1) == find(atom2);
+        }
+
+        return true;
+    }
+
+    private Atom find(Atom atom) {
+        Atom root = atom;
+        while (root.componentParent != root) {
+            root = root.componentParent;
+        }
+
+        //Path compression
+        while (atom != root) {
+            Atom parent = atom.componentParent;
+            atom.componentParent = root;
+            atom = parent;
+        }
+
+        return root;
+    }
+
+    /**
+     * Splits a dirty component into the components formed by its current bonds
+     */
+    private void rebuild(Atom root) {
+        store(root);
+
+        //Unassign every member, so that the flood fill below only spreads within this component
+        Atom member = root;
+        do {
+            Atom next = member.componentNext;
+            member.componentParent = null;
+            member = next;
+        } while (member != root);
+
+        for (int i = 0; i < queue.size(); i++) {
+            Atom start = queue.get(i);
+            if (start.componentParent != null) {
+                continue;
+            }
+
+            //Removed atoms are left on their own
+            if (start.getId() == -1) {
+                makeSingleton(start);
+                continue;
+            }
+
+            makeSingleton(start);
+            Atom last = start;
+            //Members of the new component are appended after the remaining queue and popped from there
+            int end = queue.size();
+            queue.add(start);
+            for (int j = end; j < queue.size(); j++) {
+                Atom atom = queue.get(j);
+                for (Atom bondedAtom : atom.getBonds()) {
+                    if (bondedAtom.componentParent == null && bondedAtom.getId() != -1) {
+                        bondedAtom.componentParent = start;
+                        bondedAtom.componentDirty = false;
+                        bondedAtom.componentNext = start;
+                        last.componentNext = bondedAtom;
+                        last = bondedAtom;
+                        start.componentSize++;
+                        queue.add(bondedAtom);
+                    }
+                }
+            }
+
+            //Drop the flood fill, keeping the members still to be assigned
+            while (queue.size() > end) {
+                queue.remove(queue.size() - 1);
+            }
+        }
+
+        queue.clear();
+    }
+
+    /**
+     * Copies every member of a component into the queue
+     */
+    private void store(Atom root) {
+        queue.clear();
+        Atom member = root;
+        do {
+            queue.add(member);
+            member = member.componentNext;
+        } while (member != root);
+    }
+
+    private static void makeSingleton(Atom atom) {
+        atom.componentParent = atom;
+        atom.componentNext = atom;
+        atom.componentSize = 1;
+        atom.componentDirty = false;
+    }
+}
@@ -60,8 +60,8 @@ public class SquareMapPanel extends JPanel {
             int y = ((SquareLocation) atom.getLocation()).getY();
 
             //render each type of atom with a different color
-            g.setColor(atom.type.color);
-            if (atom.state == 0 && atom.bonds.isEmpty()) {
+            g.setColor(atom.getType().color);
+            if (atom.getState() == 0 && atom.getBondCount() == 0) {
 
                 g.fillOval(cellWidth * x, cellHeight * y, 6, 6);
             } else {
@@ -77,8 +77,8 @@ public class SquareMapPanel extends JPanel {
             //The offset from cornet of the cell
             int textOffsetX = (cellWidth / 2);
             int textOffsetY = (cellHeight / 2);
-            if (atom.state != 0) {
-//                g.drawString("" + atom.state, x * cellWidth + textOffsetX, y * cellHeight + textOffsetY);
+            if (atom.getState() != 0) {
+//                g.drawString("" + atom.getState(), x * cellWidth + textOffsetX, y * cellHeight + textOffsetY);
             }
 
             //Bonds
@@ -86,7 +86,7 @@ public class SquareMapPanel extends JPanel {
             int atomX = getCenter(x, cellWidth);
             int atomY = getCenter(y, cellHeight);
 
-            for (Atom bondedAtom : atom.bonds) {
+            for (Atom bondedAtom : atom.getBonds()) {
                 //The location of the bonded atom
                 SquareLocation bondedLocation = (SquareLocation) bondedAtom.getLocation();
 
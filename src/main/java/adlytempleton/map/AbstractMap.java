@@ -13,14 +13,18 @@
 package adlytempleton.map;
 
 import adlytempleton.atom.Atom;
+import adlytempleton.atom.AtomStore;
 import adlytempleton.reaction.ReactionData;
 import adlytempleton.reaction.ReactionDataTriple;
+import adlytempleton.reaction.ReactionTable;
 import adlytempleton.simulator.SimulatorConstants;
 import com.google.common.collect.HashMultimap;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created by ATempleton on 11/7/2015.
@@ -41,6 +45,30 @@ public abstract class AbstractMap {
      */
     transient public ArrayList<HashMultimap<ReactionData, Atom>> enzymes = new ArrayList<>();
 
+    /**
+     * Guards enzymes during a parallel tick
+     * Changes to the enzyme map take the write lock, and readers outside of the map must take the read lock
+     */
+    transient public final ReadWriteLock enzymeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Every reaction in the enzyme map, listed by the type and state of the atoms it applies to
+     * Changed along with enzymes, under the same lock
+     */
+    transient public final ReactionTable reactionTable = new ReactionTable(SimulatorConstants.MAX_STATE);
+
+    /**
+     * Spatial index of the enzyme map, if the map supports one
+     * Changed along with enzymes, under the same lock
+     */
+    transient protected EnzymeIndex enzymeIndex;
+
+    /**
+     * Primitive-array storage for all atoms added to this map
+     * Implementations must register each atom added to the map
+     */
+    transient protected AtomStore atomStore = new AtomStore();
+
     public AbstractMap(){
         for(int i = 0; i < SimulatorConstants.MAX_STATE; i++){
             enzymes.add(HashMultimap.<ReactionData, Atom>create());
@@ -48,11 +76,24 @@ public abstract class AbstractMap {
     }
 
     public void addToEnzymeMap(ReactionData rxn, Atom atom){
-        enzymes.get(rxn.preState1).put(rxn, atom);
-        enzymes.get(rxn.preState2).put(rxn, atom);
+        enzymeLock.writeLock().lock();
+        try {
+            if (!enzymes.get(rxn.preState1).containsKey(rxn)) {
+                reactionTable.add(rxn);
+            }
+
+            enzymes.get(rxn.preState1).put(rxn, atom);
+            enzymes.get(rxn.preState2).put(rxn, atom);
+
+            if (rxn instanceof ReactionDataTriple) {
+                enzymes.get(((ReactionDataTriple) rxn).preState3).put(rxn, atom);
+            }
 
-        if(rxn instanceof ReactionDataTriple){
-            enzymes.get(((ReactionDataTriple) rxn).preState3).put(rxn, atom);
+            if (enzymeIndex != null) {
+                enzymeIndex.add(rxn, atom);
+            }
+        } finally {
+            enzymeLock.writeLock().unlock();
         }
     }
 
@@ -73,11 +114,24 @@ public abstract class AbstractMap {
     }
 
     public void removeFromEnzymeMap(ReactionData rxn, Atom atom){
-        enzymes.get(rxn.preState1).remove(rxn, atom);
-        enzymes.get(rxn.preState2).remove(rxn, atom);
+        enzymeLock.writeLock().lock();
+        try {
+            enzymes.get(rxn.preState1).remove(rxn, atom);
+            enzymes.get(rxn.preState2).remove(rxn, atom);
 
-        if(rxn instanceof ReactionDataTriple){
-            enzymes.get(((ReactionDataTriple) rxn).preState3).remove(rxn, atom);
+            if (rxn instanceof ReactionDataTriple) {
+                enzymes.get(((ReactionDataTriple) rxn).preState3).remove(rxn, atom);
+            }
+
+            if (!enzymes.get(rxn.preState1).containsKey(rxn)) {
+                reactionTable.remove(rxn);
+            }
+
+            if (enzymeIndex != null) {
+                enzymeIndex.remove(rxn, atom);
+            }
+        } finally {
+            enzymeLock.writeLock().unlock();
         }
     }
 
@@ -89,6 +143,10 @@ public abstract class AbstractMap {
         for(int i = 0; i < SimulatorConstants.MAX_STATE; i++){
             enzymes.get(i).clear();
         }
+        reactionTable.clear();
+        if (enzymeIndex != null) {
+            enzymeIndex.clear();
+        }
 
         for (Atom atom : getAllAtoms()) {
             for (ReactionData rxn : atom.getReactions()) {
@@ -99,6 +157,54 @@ public abstract class AbstractMap {
         }
     }
 
+    /**
+     * Finds the enzymes catalyzing a reaction which may lie within range of either of two nearby locations
+     * This may include enzymes which are further away, so the distance must still be checked
+     * Takes the read lock of the enzyme map
+     *
+     * @param loc1   First ILocation of type getLocationType()
+     * @param loc2   Second ILocation of type getLocationType()
+     * @param result List to add the enzymes to. Each enzyme is added once
+     */
+    public void getNearbyEnzymes(ReactionData rxn, ILocation loc1, ILocation loc2, int range, List<Atom> result) {
+        enzymeLock.readLock().lock();
+        try {
+            //Maps without a spatial index list every enzyme of the reaction
+            HashSet<Atom> found = new HashSet<>(enzymes.get(rxn.preState1).get(rxn));
+            found.addAll(enzymes.get(rxn.preState2).get(rxn));
+            result.addAll(found);
+        } finally {
+            enzymeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether any enzyme may lie within ENZYME_RANGE of a location
+     * Maps without a catalysis field can not rule this out, and always return true
+     * Does not take the enzyme lock, as during a parallel tick the counts near a worker's atoms are only changed by that worker
+     *
+     * @param location An ILocation of type getLocationType()
+     * @return False if no enzyme reaches the location
+     */
+    public boolean isCatalyzed(ILocation location) {
+        return true;
+    }
+
+    /**
+     * Checks whether an enzyme catalyzing a reaction may lie within ENZYME_RANGE of a location
+     * Maps without a catalysis field can not rule this out, and always return true
+     *
+     * @param location An ILocation of type getLocationType()
+     * @return False if no enzyme for the reaction reaches the location
+     */
+    public boolean isCatalyzed(ReactionData rxn, ILocation location) {
+        return true;
+    }
+
+    public AtomStore getAtomStore() {
+        return atomStore;
+    }
+
     /**
      * @return The subclass of ILocation used by this type of map
      */
@@ -152,6 +258,63 @@ public abstract class AbstractMap {
 
     }
 
+    /**
+     * Allocation-free version of getAdjacentAtoms
+     * Collects every atom in the Moore neighborhood of the given range into result
+     *
+     * @param location An AbstactLocation on the grid of type getLocationType()
+     * @param range    The range of the neighborhood
+     * @param result   Buffer for the atoms found. Must hold at least MooreNeighborhood.ofRange(range).size() elements
+     * @return The number of atoms written into result
+     */
+    public int getAdjacentAtoms(ILocation location, int range, Atom[] result) {
+        MooreNeighborhood neighborhood = MooreNeighborhood.ofRange(range);
+        int count = 0;
+
+        for (int i = 0; i < neighborhood.size(); i++) {
+            Atom atom = getAtomAtOffset(location, neighborhood.dx[i], neighborhood.dy[i]);
+            if (atom != null) {
+                result[count++] = atom;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Allocation-free occupancy test for the cells adjacent to a location
+     *
+     * @param location An AbstactLocation on the grid of type getLocationType()
+     * @return A bitmask in which bit i is set if cell i of MooreNeighborhood.ofRange(1) is on the grid and empty
+     */
+    public int getEmptyNeighborMask(ILocation location) {
+        MooreNeighborhood adjacent = MooreNeighborhood.ofRange(1);
+        int mask = 0;
+
+        for (int i = 0; i < adjacent.size(); i++) {
+            if (isOffsetOnGrid(location, adjacent.dx[i], adjacent.dy[i]) && getAtomAtOffset(location, adjacent.dx[i], adjacent.dy[i]) == null) {
+                mask |= 1 << i;
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Allocation-free lookup of the atom at an offset from a location
+     *
+     * @param location An AbstactLocation on the grid of type getLocationType()
+     * @return The atom at location + (dx, dy), or null if the cell is empty or off the grid
+     */
+    public abstract Atom getAtomAtOffset(ILocation location, int dx, int dy);
+
+    /**
+     * Allocation-free version of isOnGrid for an offset from a location
+     *
+     * @return True if location + (dx, dy) lies within the map
+     */
+    public abstract boolean isOffsetOnGrid(ILocation location, int dx, int dy);
+
     /**
      * Checks if four locations are crossed on the grid geometry
      * <p>
@@ -166,6 +329,52 @@ public abstract class AbstractMap {
      */
     public abstract boolean crossed(ILocation loc11, ILocation loc12, ILocation loc21, ILocation loc22, boolean strict);
 
+    /**
+     * Version of crossed which takes packed locations (see PackedLocation)
+     * All four locations must be in one common frame, such as offsets from a single atom, so no wrapping is applied
+     */
+    public abstract boolean crossed(int loc11, int loc12, int loc21, int loc22, boolean strict);
+
+    /**
+     * Checks if a line crosses any bond on the map, in strict mode
+     * Bonds to either of the two excluded atoms are ignored
+     *
+     * @param origin    An ILocation of type getLocationType(), from which both positions are measured
+     * @param position1 The offset of the start of the line, packed with PackedLocation
+     * @param position2 The offset of the end of the line, packed with PackedLocation
+     * @return True if the line crosses a bond
+     */
+    public abstract boolean crossesAnyBond(ILocation origin, int position1, int position2, Atom exclude1, Atom exclude2);
+
+    /**
+     * Checks if a line crosses a membrane (a bond between two type-A atoms), in strict mode
+     * Bonds to either of the two excluded atoms are ignored
+     *
+     * @param loc1 Start of the line, of type getLocationType()
+     * @param loc2 End of the line, of type getLocationType()
+     * @return True if the line crosses a membrane
+     */
+    public abstract boolean membraneCrosses(ILocation loc1, ILocation loc2, Atom exclude1, Atom exclude2);
+
+    /**
+     * Checks if two locations lie in the same compartment: a region of the map which is not divided by membranes
+     * Compartments may be those at the start of the current tick, rather than of the current membranes
+     *
+     * @param loc1 First ILocation of type getLocationType()
+     * @param loc2 Second ILocation of type getLocationType()
+     * @return True if no membrane separates the locations
+     */
+    public abstract boolean sameCompartment(ILocation loc1, ILocation loc2);
+
+    /**
+     * Finds the shortest offset between two locations on the grid
+     *
+     * @param from First ILocation of type getLocationType()
+     * @param to   Second ILocation of type getLocationType()
+     * @return The offset which must be added to from to reach to, packed with PackedLocation
+     */
+    public abstract int getPackedOffset(ILocation from, ILocation to);
+
     /**
      * Moves an atom from one location to another. This should both update the location in the map and in the Atom itself.
      * If an atom already exists at this location, the movement should be canceled
@@ -185,7 +394,7 @@ public abstract class AbstractMap {
     /**
      * Finds all atoms on the map
      *
-     * @return A List containing all Atoms
+     * @return A read-only List containing all Atoms, which may reflect later changes to the map
      */
     public abstract List<Atom> getAllAtoms();
 
@@ -248,5 +457,13 @@ public abstract class AbstractMap {
      */
     public abstract void addAtom(ILocation location, Atom atom);
 
+    /**
+     * Removes an Atom from the map, along with any enzyme mappings
+     * All bonds to the atom are broken
+     *
+     * @param atom The atom to remove
+     */
+    public abstract void removeAtom(Atom atom);
+
 
 }
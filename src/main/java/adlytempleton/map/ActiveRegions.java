@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import java.util.Arrays;
+
+/**
+ * A coarse map of the regions of a square map in which something may happen
+ * <p>
+ * The map is divided into BLOCK_SIZE x BLOCK_SIZE blocks, each of which is either active or quiescent.
+ * Marking a location activates every block within a range of it, so the active set is always a superset of the marked area
+ */
+public class ActiveRegions {
+
+    public static final int BLOCK_BITS = 3;
+    public static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    private final int size;
+    private final boolean toroidal;
+    private final int blocksPerSide;
+
+    private final boolean[] active;
+
+    public ActiveRegions(int size, boolean toroidal) {
+        this.size = size;
+        this.toroidal = toroidal;
+        this.blocksPerSide = (size + BLOCK_SIZE - 1) >> BLOCK_BITS;
+        this.active = new boolean[blocksPerSide * blocksPerSide];
+    }
+
+    /**
+     * Marks every block as quiescent
+     */
+    public void clear() {
+        Arrays.fill(active, false);
+    }
+
+    /**
+     * Activates all blocks containing a cell within range of the given location
+     */
+    public void mark(ILocation location, int range) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        mark(sqLoc.getX(), sqLoc.getY(), range);
+    }
+
+    /**
+     * Version of mark on grid coordinates
+     */
+    public void mark(int x, int y, int range) {
+        int previousBlockY = -1;
+        for (int cellY = y - range; cellY <= y + range; cellY++) {
+            int blockY = blockOf(cellY);
+            if (blockY == -1 || blockY == previousBlockY) {
+                continue;
+            }
+            previousBlockY = blockY;
+
+            int previousBlockX = -1;
+            for (int cellX = x - range; cellX <= x + range; cellX++) {
+                int blockX = blockOf(cellX);
+                if (blockX == -1 || blockX == previousBlockX) {
+                    continue;
+                }
+                previousBlockX = blockX;
+
+                active[blockY * blocksPerSide + blockX] = true;
+            }
+        }
+    }
+
+    /**
+     * @return The block containing a coordinate, or -1 if it lies off a bounded map
+     */
+    private int blockOf(int coordinate) {
+        if (toroidal) {
+            coordinate = ToroidalLocation.wrap(coordinate, size);
+        } else if (coordinate < 0 || coordinate >= size) {
+            return -1;
+        }
+        return coordinate >> BLOCK_BITS;
+    }
+
+    /**
+     * @param location A location on the grid
+     * @return True if the block containing the location is active
+     */
+    public boolean isActive(ILocation location) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        return active[(sqLoc.getY() >> BLOCK_BITS) * blocksPerSide + (sqLoc.getX() >> BLOCK_BITS)];
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.atom.Atom;
+import adlytempleton.atom.AtomStore;
+import adlytempleton.atom.EnumType;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spatial index of every bond on a SquareMap, used to find bonds which cross a line
+ * An index may instead hold only membranes (bonds between two type-A atoms), which block the reach of enzymes
+ * <p>
+ * Each bond is registered in every cell of the bounding box between its two atoms.
+ * Two lines can only cross if their bounding boxes overlap, and two boxes with integer corners
+ * which overlap always share a cell, so the bonds registered in the cells under a line include every bond which may cross it
+ * <p>
+ * The index is kept up to date by the AtomStore of the map, as atoms are bonded, unbonded and moved.
+ * Cells are stored in lazily allocated chunks, as with TiledMap.
+ * During a parallel tick, each cell is only changed by the worker whose tile contains it
+ */
+public class BondIndex {
+
+    private static final int CHUNK_BITS = 5;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final SquareMap map;
+    private final AtomStore store;
+    private final int size;
+    private final boolean toroidal;
+
+    //If true, only bonds between two type-A atoms are indexed
+    private final boolean membranesOnly;
+
+    private final int chunksPerSide;
+
+    //Chunks indexed by chunkY * chunksPerSide + chunkX. Null until a bond is registered in the chunk
+    private final Chunk[] chunks;
+
+    //Counts every bond added or removed, so that structures derived from the index know when to update
+    private final AtomicLong changes = new AtomicLong();
+
+    public BondIndex(SquareMap map, boolean membranesOnly) {
+        this.map = map;
+        this.membranesOnly = membranesOnly;
+        this.store = map.getAtomStore();
+        this.size = map.getSize();
+        this.toroidal = map instanceof ToroidalMap;
+
+        chunksPerSide = (size + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        chunks = new Chunk[chunksPerSide * chunksPerSide];
+    }
+
+    /**
+     * Registers a bond between two atoms of the store
+     */
+    public void add(Atom atom1, Atom atom2) {
+        if (accepts(atom1, atom2)) {
+            update(atom1, store.getLocation(atom1.getId()), atom2, true);
+        }
+    }
+
+    /**
+     * Removes a bond between two atoms of the store
+     */
+    public void remove(Atom atom1, Atom atom2) {
+        if (accepts(atom1, atom2)) {
+            update(atom1, store.getLocation(atom1.getId()), atom2, false);
+        }
+    }
+
+    /**
+     * Moves every bond of an atom of the store
+     *
+     * @param oldLocation The previous location of the atom, packed with PackedLocation
+     * @param newLocation The new location of the atom, packed with PackedLocation
+     */
+    public void move(Atom atom, int oldLocation, int newLocation) {
+        if (membranesOnly && atom.getType() != EnumType.A) {
+            return;
+        }
+
+        for (Atom bondedAtom : atom.getBonds()) {
+            if (store.contains(bondedAtom) && accepts(atom, bondedAtom)) {
+                update(atom, oldLocation, bondedAtom, false);
+                update(atom, newLocation, bondedAtom, true);
+            }
+        }
+    }
+
+    /**
+     * @return The number of times a bond has been added to or removed from the index
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * Lists every cell in which a bond has been registered or removed since the last call, and forgets them
+     * Must not be called while bonds change
+     *
+     * @param result Array to write the cells to, as indices y * size + x. Must hold size * size cells
+     * @return The number of cells written
+     */
+    public int takeChangedCells(int[] result) {
+        int count = 0;
+        for (int index = 0; index < chunks.length; index++) {
+            Chunk chunk = chunks[index];
+            if (chunk == null || !chunk.anyChanged) {
+                continue;
+            }
+
+            int chunkX = (index % chunksPerSide) << CHUNK_BITS;
+            int chunkY = (index / chunksPerSide) << CHUNK_BITS;
+            for (int cell = 0; cell < chunk.changed.length; cell++) {
+                if (chunk.changed[cell]) {
+                    chunk.changed[cell] = false;
+                    result[count++] = (chunkY + (cell >> CHUNK_BITS)) * size + chunkX + (cell & CHUNK_MASK);
+                }
+            }
+            chunk.anyChanged = false;
+        }
+        return count;
+    }
+
+    private boolean accepts(Atom atom1, Atom atom2) {
+        return !membranesOnly || (atom1.getType() == EnumType.A && atom2.getType() == EnumType.A);
+    }
+
+    /**
+     * Adds or removes a bond in every cell of its bounding box
+     *
+     * @param location1 The location of atom1, packed with PackedLocation
+     */
+    private void update(Atom atom1, int location1, Atom atom2, boolean add) {
+        changes.incrementAndGet();
+
+        int offset = offset(location1, store.getLocation(atom2.getId()));
+        int x = PackedLocation.getX(location1);
+        int y = PackedLocation.getY(location1);
+        int dx = PackedLocation.getX(offset);
+        int dy = PackedLocation.getY(offset);
+
+        for (int cellX = x + Math.min(dx, 0); cellX <= x + Math.max(dx, 0); cellX++) {
+            for (int cellY = y + Math.min(dy, 0); cellY <= y + Math.max(dy, 0); cellY++) {
+                if (add) {
+                    addToCell(wrap(cellX), wrap(cellY), atom1, atom2);
+                } else {
+                    removeFromCell(wrap(cellX), wrap(cellY), atom1, atom2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a line crosses any registered bond, in strict mode (see AbstractMap.crossed)
+     * Bonds to either of the two excluded atoms are ignored
+     * Every cell in the bounding box of the line is checked, which suits lines as short as a bond
+     *
+     * @param origin    The location, packed with PackedLocation, from which both positions are measured
+     * @param position1 Packed offset of the start of the line
+     * @param position2 Packed offset of the end of the line
+     */
+    public boolean crosses(int origin, int position1, int position2, Atom exclude1, Atom exclude2) {
+        int x1 = PackedLocation.getX(position1);
+        int y1 = PackedLocation.getY(position1);
+        int x2 = PackedLocation.getX(position2);
+        int y2 = PackedLocation.getY(position2);
+
+        for (int cellX = Math.min(x1, x2); cellX <= Math.max(x1, x2); cellX++) {
+            for (int cellY = Math.min(y1, y2); cellY <= Math.max(y1, y2); cellY++) {
+                if (crossesInCell(cellX, cellY, origin, position1, position2, exclude1, exclude2)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Version of crosses for long lines, which only checks the cells along the line
+     * <p>
+     * The line is walked one column (or row, for steep lines) at a time, checking the cells from one below the line to two above.
+     * The line lies within one unit of any point where it crosses a bond in that column,
+     * so the bounding box of that bond always shares one of these cells
+     */
+    public boolean crossesAlong(int origin, int position1, int position2, Atom exclude1, Atom exclude2) {
+        int x1 = PackedLocation.getX(position1);
+        int y1 = PackedLocation.getY(position1);
+        int x2 = PackedLocation.getX(position2);
+        int y2 = PackedLocation.getY(position2);
+        int dx = x2 - x1;
+        int dy = y2 - y1;
+
+        if (Math.abs(dx) >= Math.abs(dy)) {
+            for (int x = Math.min(x1, x2); x <= Math.max(x1, x2); x++) {
+                int y = dx == 0 ? y1 : y1 + SquareMap.floorDiv((x - x1) * dy, dx);
+                for (int cellY = y - 1; cellY <= y + 2; cellY++) {
+                    if (crossesInCell(x, cellY, origin, position1, position2, exclude1, exclude2)) {
+                        return true;
+                    }
+                }
+            }
+        } else {
+            for (int y = Math.min(y1, y2); y <= Math.max(y1, y2); y++) {
+                int x = x1 + SquareMap.floorDiv((y - y1) * dx, dy);
+                for (int cellX = x - 1; cellX <= x + 2; cellX++) {
+                    if (crossesInCell(cellX, y, origin, position1, position2, exclude1, exclude2)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks the bonds registered in one cell against a line
+     *
+     * @param cellX Offset of the cell from origin
+     * @param cellY Offset of the cell from origin
+     */
+    private boolean crossesInCell(int cellX, int cellY, int origin, int position1, int position2, Atom exclude1, Atom exclude2) {
+        int x = wrap(PackedLocation.getX(origin) + cellX);
+        int y = wrap(PackedLocation.getY(origin) + cellY);
+        if (x < 0 || y < 0 || x >= size || y >= size) {
+            return false;
+        }
+
+        Chunk chunk = chunks[chunkIndex(x, y)];
+        if (chunk == null) {
+            return false;
+        }
+
+        int cell = cellIndex(x, y);
+        Atom[] bonds = chunk.bonds[cell];
+        int count = chunk.counts[cell];
+        for (int i = 0; i < count; i += 2) {
+            Atom bondAtom1 = bonds[i];
+            Atom bondAtom2 = bonds[i + 1];
+            if (bondAtom1 == exclude1 || bondAtom1 == exclude2 || bondAtom2 == exclude1 || bondAtom2 == exclude2) {
+                continue;
+            }
+
+            int location1 = store.getLocation(bondAtom1.getId());
+            int bondPosition1 = offset(origin, location1);
+            int bondPosition2 = PackedLocation.add(bondPosition1, offset(location1, store.getLocation(bondAtom2.getId())));
+            if (map.crossed(position1, position2, bondPosition1, bondPosition2, true)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void addToCell(int x, int y, Atom atom1, Atom atom2) {
+        int index = chunkIndex(x, y);
+        Chunk chunk = chunks[index];
+        if (chunk == null) {
+            synchronized (this) {
+                chunk = chunks[index];
+                if (chunk == null) {
+                    chunk = new Chunk();
+                    chunks[index] = chunk;
+                }
+            }
+        }
+
+        int cell = cellIndex(x, y);
+        chunk.markChanged(cell);
+        Atom[] bonds = chunk.bonds[cell];
+        int count = chunk.counts[cell];
+        if (bonds == null) {
+            bonds = new Atom[4];
+            chunk.bonds[cell] = bonds;
+        } else if (count == bonds.length) {
+            bonds = Arrays.copyOf(bonds, 2 * count);
+            chunk.bonds[cell] = bonds;
+        }
+
+        bonds[count] = atom1;
+        bonds[count + 1] = atom2;
+        chunk.counts[cell] = count + 2;
+    }
+
+    private void removeFromCell(int x, int y, Atom atom1, Atom atom2) {
+        Chunk chunk = chunks[chunkIndex(x, y)];
+        if (chunk == null) {
+            return;
+        }
+
+        int cell = cellIndex(x, y);
+        Atom[] bonds = chunk.bonds[cell];
+        int count = chunk.counts[cell];
+        for (int i = 0; i < count; i += 2) {
+            if ((bonds[i] == atom1 && bonds[i + 1] == atom2) || (bonds[i] == atom2 && bonds[i + 1] == atom1)) {
+                //Move the last bond into the freed slot
+                bonds[i] = bonds[count - 2];
+                bonds[i + 1] = bonds[count - 1];
+                bonds[count - 2] = null;
+                bonds[count - 1] = null;
+                chunk.counts[cell] = count - 2;
+                chunk.markChanged(cell);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The shortest offset from one packed location to another
+     */
+    private int offset(int from, int to) {
+        int dx = PackedLocation.getX(to) - PackedLocation.getX(from);
+        int dy = PackedLocation.getY(to) - PackedLocation.getY(from);
+        if (toroidal) {
+            dx = ToroidalLocation.shortestOffset(dx, size);
+            dy = ToroidalLocation.shortestOffset(dy, size);
+        }
+        return PackedLocation.pack(dx, dy);
+    }
+
+    private int wrap(int coordinate) {
+        return toroidal ? ToroidalLocation.wrap(coordinate, size) : coordinate;
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * chunksPerSide + (x >> CHUNK_BITS);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+
+    /**
+     * The bonds registered in a CHUNK_SIZE x CHUNK_SIZE square of cells
+     * Each cell holds its bonds as consecutive pairs of atoms
+     */
+    private static class Chunk {
+        private final Atom[][] bonds = new Atom[CHUNK_SIZE * CHUNK_SIZE][];
+        private final int[] counts = new int[CHUNK_SIZE * CHUNK_SIZE];
+
+        //Cells whose bonds have changed since the last takeChangedCells
+        //A boolean for each cell, as cells of one chunk may be changed by the workers of two tiles
+        private final boolean[] changed = new boolean[CHUNK_SIZE * CHUNK_SIZE];
+        private boolean anyChanged;
+
+        private void markChanged(int cell) {
+            changed[cell] = true;
+            anyChanged = true;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.reaction.ReactionData;
+
+import java.util.HashMap;
+
+/**
+ * Counts, for every cell of a SquareMap, the enzymes within range of that cell
+ * <p>
+ * Each reaction has its own counts, so checking whether any enzyme for a reaction can reach a cell is a single lookup.
+ * A total over all reactions tells whether any enzyme at all reaches a cell.
+ * <p>
+ * Counts are changed incrementally: an enzyme covers the square of cells within range when it gains a reaction,
+ * and uncovers it when it loses one. A move of one unit only changes the edges of that square, found with newlyInRange.
+ * All counts are stored in lazily allocated chunks of CHUNK_SIZE by CHUNK_SIZE cells, as enzymes are usually found
+ * in a small part of the map, and the map itself may be too large to count every cell on the heap
+ * <p>
+ * Chunks are allocated as in BondIndex, so counts can be read without a lock during a parallel tick
+ */
+public class CatalysisField {
+
+    private static final int CHUNK_BITS = 5;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final SquareMap map;
+    private final int size;
+    private final boolean toroidal;
+    private final int range;
+    private final int chunksPerSide;
+
+    //The number of (enzyme, reaction) pairs within range of each cell
+    private final Coverage total;
+
+    private final HashMap<ReactionData, Coverage> reactions = new HashMap<>();
+
+    public CatalysisField(SquareMap map, int range) {
+        this.map = map;
+        this.size = map.getSize();
+        this.toroidal = map instanceof ToroidalMap;
+        this.range = range;
+        this.chunksPerSide = (size + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        this.total = new Coverage(chunksPerSide * chunksPerSide);
+    }
+
+    /**
+     * Covers the cells around an enzyme which has gained a reaction
+     *
+     * @param location The location of the enzyme, packed with PackedLocation
+     */
+    public void add(ReactionData rxn, int location) {
+        Coverage coverage = reactions.get(rxn);
+        if (coverage == null) {
+            coverage = new Coverage(chunksPerSide * chunksPerSide);
+            reactions.put(rxn, coverage);
+        }
+        coverage.enzymes++;
+        cover(coverage, location, 1);
+    }
+
+    /**
+     * Uncovers the cells around an enzyme which has lost a reaction
+     */
+    public void remove(ReactionData rxn, int location) {
+        Coverage coverage = reactions.get(rxn);
+        cover(coverage, location, -1);
+        if (--coverage.enzymes == 0) {
+            reactions.remove(rxn);
+        }
+    }
+
+    /**
+     * Moves the coverage of an enzyme for one reaction
+     *
+     * @param from   The previous location of the enzyme, packed with PackedLocation
+     * @param to     The new location of the enzyme
+     * @param offset The shortest offset from the previous location to the new one
+     */
+    public void move(ReactionData rxn, int from, int to, int offset) {
+        Coverage coverage = reactions.get(rxn);
+        int dx = PackedLocation.getX(offset);
+        int dy = PackedLocation.getY(offset);
+
+        //newlyInRange only holds for movements of one unit
+        if (Math.abs(dx) > 1 || Math.abs(dy) > 1) {
+            cover(coverage, from, -1);
+            cover(coverage, to, 1);
+            return;
+        }
+
+        for (int cell : map.newlyInRange(to, dx, dy, range)) {
+            change(coverage, PackedLocation.getX(cell), PackedLocation.getY(cell), 1);
+        }
+        //The cells which leave the range are those which would enter it on the way back
+        for (int cell : map.newlyInRange(from, -dx, -dy, range)) {
+            change(coverage, PackedLocation.getX(cell), PackedLocation.getY(cell), -1);
+        }
+    }
+
+    public void clear() {
+        reactions.clear();
+        total.clear();
+    }
+
+    /**
+     * @return True if any enzyme is within range of the given location
+     */
+    public boolean isCovered(int x, int y) {
+        return isCovered(total, x, y);
+    }
+
+    /**
+     * @return True if an enzyme catalyzing the reaction is within range of the given location
+     */
+    public boolean isCovered(ReactionData rxn, int x, int y) {
+        Coverage coverage = reactions.get(rxn);
+        return coverage != null && isCovered(coverage, x, y);
+    }
+
+    private boolean isCovered(Coverage coverage, int x, int y) {
+        if (toroidal) {
+            x = ToroidalLocation.wrap(x, size);
+            y = ToroidalLocation.wrap(y, size);
+        } else if (x < 0 || y < 0 || x >= size || y >= size) {
+            return false;
+        }
+        int[] chunk = coverage.chunks[chunkIndex(x, y)];
+        return chunk != null && chunk[cellIndex(x, y)] > 0;
+    }
+
+    private void cover(Coverage coverage, int location, int amount) {
+        int x = PackedLocation.getX(location);
+        int y = PackedLocation.getY(location);
+        for (int cellX = x - range; cellX <= x + range; cellX++) {
+            for (int cellY = y - range; cellY <= y + range; cellY++) {
+                change(coverage, cellX, cellY, amount);
+            }
+        }
+    }
+
+    /**
+     * Changes the count of a cell, which may lie off the grid
+     */
+    private void change(Coverage coverage, int x, int y, int amount) {
+        if (toroidal) {
+            x = ToroidalLocation.wrap(x, size);
+            y = ToroidalLocation.wrap(y, size);
+        } else if (x < 0 || y < 0 || x >= size || y >= size) {
+            return;
+        }
+
+        int index = chunkIndex(x, y);
+        int cell = cellIndex(x, y);
+        total.chunk(index)[cell] += amount;
+        coverage.chunk(index)[cell] += amount;
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * chunksPerSide + (x >> CHUNK_BITS);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+
+    /**
+     * The counts of a single reaction, or of all reactions
+     */
+    private static class Coverage {
+        private final int[][] chunks;
+
+        //The number of enzymes catalyzing the reaction
+        private int enzymes;
+
+        private Coverage(int chunkCount) {
+            chunks = new int[chunkCount][];
+        }
+
+        /**
+         * @return The chunk with the given index, which is allocated if necessary
+         */
+        private int[] chunk(int index) {
+            int[] chunk = chunks[index];
+            if (chunk == null) {
+                //Workers of a parallel tick may change counts in the same chunk
+                synchronized (this) {
+                    chunk = chunks[index];
+                    if (chunk == null) {
+                        chunk = new int[CHUNK_SIZE * CHUNK_SIZE];
+                        chunks[index] = chunk;
+                    }
+                }
+            }
+            return chunk;
+        }
+
+        private void clear() {
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,699 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import java.util.Arrays;
+
+/**
+ * Labels the compartments of a SquareMap: regions of cells which are separated from each other by membranes
+ * <p>
+ * Two adjacent cells are in the same compartment if the step between them does not cross a membrane (a bond between type-A atoms, see BondIndex).
+ * Steps are checked in strict mode, so the cell of a membrane atom is a compartment boundary and has no label.
+ * <p>
+ * A compartment which is enclosed by membranes is a living cell. On a bounded map, this is every compartment which does not touch the edge.
+ * On a toroidal map, the largest compartment is taken to be the outside and every other compartment is a cell.
+ * Pockets smaller than MIN_CELL_AREA, which open and close as a membrane folds, are not cells
+ * <p>
+ * Labels are only changed by update, which the Simulator calls between ticks when COMPARTMENT_BLOCKING is set,
+ * so a tick sees the compartments as they were when it started. getLabel and sameCompartment take no lock,
+ * and the workers of a parallel tick never read the membranes while other workers move them.
+ * <p>
+ * Membrane atoms move nearly every tick, but rarely change which cells are connected. An update therefore repairs the labels
+ * of the cells whose membranes have changed (the region), and checks that every compartment around the region is still connected
+ * through the cells just outside it (the margin). Only if a compartment may have split, merged, appeared or vanished is the whole map relabeled.
+ * Each relabel matches new cells to the cells they grew from, which counts division events.
+ * The label arrays are only allocated by the first update
+ */
+public class CompartmentIndex {
+
+    //Label of a cell which holds a membrane atom
+    public static final int BOUNDARY = -1;
+
+    //The smallest compartment, in grid cells, which counts as a living cell
+    public static final int MIN_CELL_AREA = 16;
+
+    //A region larger than this fraction of the map is relabeled from scratch
+    private static final int MAX_REGION_FRACTION = 8;
+
+    //Distance from the region to the edge of its margin
+    private static final int MARGIN_RANGE = 2;
+
+    //Label of a cell which has not been labeled yet
+    private static final int UNLABELED = Integer.MIN_VALUE;
+
+    //Values of work during a repair. Cells of the region are UNASSIGNED, ON_MEMBRANE, or a value from regionValue,
+    //and cells of the margin are IN_MARGIN or a value from marginValue
+    private static final int UNASSIGNED = -1;
+    private static final int ON_MEMBRANE = -2;
+    private static final int IN_MARGIN = 1;
+
+    private final BondIndex membranes;
+    private final int size;
+    private final boolean toroidal;
+
+    private final MooreNeighborhood adjacent = MooreNeighborhood.ofRange(1);
+    //The offsets of adjacent, packed with PackedLocation
+    private final int[] steps;
+
+    //Value of membranes.getChangeCount() when the labels were computed, or -1 if they never have been
+    private long labeledChanges = -1;
+
+    //The compartment of each cell, indexed by y * size + x
+    private int[] labels;
+    //Labels run from 0 to compartmentCount - 1, apart from the labels of compartments which vanished in a repair
+    private int compartmentCount;
+    private int[] freeLabels = new int[8];
+    private int freeCount;
+
+    //Zero between updates. A repair marks the cells it visits, and a relabel keeps the previous labels
+    private int[] work;
+
+    //Whether each compartment is a living cell, indexed by label
+    private boolean[] enclosed = new boolean[0];
+    private boolean[] previousEnclosed = new boolean[0];
+
+    //True if the labels have been repaired since enclosed and cellCount were computed
+    private boolean cellsStale;
+
+    private int cellCount;
+    private long divisionCount;
+
+    //Work queue for the flood fill
+    private int[] queue;
+
+    //The cells of the region and of the margin during a repair
+    private int[] region = new int[64];
+    private int regionSize;
+    private int[] margin = new int[64];
+    private int marginSize;
+
+    //The cells of the region during a repair, grouped by piece
+    private int[] pieceCells = new int[64];
+    //The old compartment joined by each new compartment of the region
+    private int[] joined = new int[64];
+
+    //Indexed by label during a repair: the cells a compartment had in the region, and whether it keeps its label
+    private int[] inRegion = new int[0];
+    private boolean[] kept = new boolean[0];
+    //Indexed by label during a repair: one more than the last piece the compartment was found beside, or 0 if it lies
+    //beside none, and the part of the margin it was found in beside that piece
+    private int[] partPiece = new int[0];
+    private int[] partOf = new int[0];
+
+    //The number of cells filled by the last call to fillRegion
+    private int filledCount;
+
+    public CompartmentIndex(SquareMap map, BondIndex membranes) {
+        this.membranes = membranes;
+        this.size = map.getSize();
+        this.toroidal = map instanceof ToroidalMap;
+
+        steps = new int[adjacent.size()];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = PackedLocation.pack(adjacent.dx[i], adjacent.dy[i]);
+        }
+    }
+
+    /**
+     * Brings the labels up to date with the membranes, if they have changed since the last update
+     * Must not be called while atoms move
+     */
+    public synchronized void update() {
+        long changes = membranes.getChangeCount();
+        if (changes == labeledChanges) {
+            return;
+        }
+        boolean firstLabeling = labeledChanges == -1;
+        labeledChanges = changes;
+
+        if (labels == null) {
+            labels = new int[size * size];
+            work = new int[size * size];
+            queue = new int[size * size];
+        }
+
+        int changedCount = membranes.takeChangedCells(queue);
+        if (firstLabeling || !repair(changedCount)) {
+            relabel(!firstLabeling);
+        }
+    }
+
+    /**
+     * Labels the whole map from scratch
+     */
+    private void relabel(boolean countDivisions) {
+        //Keep the old labels to match new cells to old ones
+        if (cellsStale) {
+            findCells();
+        }
+        int[] previousLabels = labels;
+        labels = work;
+        boolean[] swapEnclosed = previousEnclosed;
+        previousEnclosed = enclosed;
+        enclosed = swapEnclosed;
+
+        label();
+        freeCount = 0;
+        findCells();
+        if (countDivisions) {
+            countDivisions(previousLabels);
+        }
+
+        work = previousLabels;
+        Arrays.fill(work, 0);
+    }
+
+    /**
+     * Flood fills every compartment
+     */
+    private void label() {
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = UNLABELED;
+        }
+
+        compartmentCount = 0;
+        for (int start = 0; start < labels.length; start++) {
+            if (labels[start] != UNLABELED) {
+                continue;
+            }
+
+            //A step of length zero crosses a membrane only if it lies on one
+            if (onMembrane(start)) {
+                labels[start] = BOUNDARY;
+                continue;
+            }
+
+            int label = compartmentCount++;
+            labels[start] = label;
+            queue[0] = start;
+            int head = 0;
+            int tail = 1;
+
+            while (head < tail) {
+                int cell = queue[head++];
+                int location = PackedLocation.pack(cell % size, cell / size);
+
+                for (int i = 0; i < steps.length; i++) {
+                    int neighbor = neighbor(cell, adjacent.dx[i], adjacent.dy[i]);
+                    if (neighbor != -1 && labels[neighbor] == UNLABELED && !membranes.crosses(location, PackedLocation.ORIGIN, steps[i], null, null)) {
+                        labels[neighbor] = label;
+                        queue[tail++] = neighbor;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Repairs the labels around the cells whose membranes have changed
+     *
+     * @param changedCount The number of changed cells, which are held in queue
+     * @return False if the labels could not be repaired, in which case they are unchanged
+     */
+    private boolean repair(int changedCount) {
+        regionSize = 0;
+        marginSize = 0;
+        boolean repaired = repairRegion(changedCount);
+
+        for (int i = 0; i < regionSize; i++) {
+            work[region[i]] = 0;
+        }
+        for (int i = 0; i < marginSize; i++) {
+            work[margin[i]] = 0;
+        }
+        return repaired;
+    }
+
+    /**
+     * A step between two cells only depends on the bonds registered under it, which are all next to both cells.
+     * The region is every cell next to a changed cell, so a step which leaves the region has not changed.
+     * Outside the region, the old labels therefore still hold within each compartment, but a compartment may now be split
+     * if the only connection between two of its parts ran through the region. Any path through the region enters and leaves
+     * the same piece of adjacent region cells, so the compartment is still connected if, around each piece,
+     * its cells are connected through the margin.
+     * <p>
+     * The new compartments of the region are then flood filled, and each must join exactly one of the old compartments.
+     * Pockets smaller than MIN_CELL_AREA may open or close within the region, as they are never living cells
+     */
+    private boolean repairRegion(int changedCount) {
+        int maxRegionSize = size * size / MAX_REGION_FRACTION;
+        for (int i = 0; i < changedCount; i++) {
+            int cell = queue[i];
+            markRegion(cell);
+            for (int j = 0; j < steps.length; j++) {
+                int neighbor = neighbor(cell, adjacent.dx[j], adjacent.dy[j]);
+                if (neighbor != -1) {
+                    markRegion(neighbor);
+                }
+            }
+            if (regionSize > maxRegionSize) {
+                return false;
+            }
+        }
+
+        //Split the region into pieces of adjacent cells, ignoring membranes
+        if (pieceCells.length < regionSize) {
+            pieceCells = new int[region.length];
+        }
+        int pieces = 0;
+        int pieceCellCount = 0;
+        for (int i = 0; i < regionSize; i++) {
+            if (work[region[i]] == UNASSIGNED) {
+                fillRegion(region[i], regionValue(pieces++), false);
+                System.arraycopy(queue, 0, pieceCells, pieceCellCount, filledCount);
+                pieceCellCount += filledCount;
+            }
+        }
+
+        //Connect the margin wherever membranes allow
+        MooreNeighborhood marginRange = MooreNeighborhood.ofRange(MARGIN_RANGE);
+        for (int i = 0; i < regionSize; i++) {
+            for (int j = 0; j < marginRange.size(); j++) {
+                int neighbor = neighbor(region[i], marginRange.dx[j], marginRange.dy[j]);
+                if (neighbor != -1 && work[neighbor] == 0) {
+                    work[neighbor] = IN_MARGIN;
+                    margin = append(margin, marginSize++, neighbor);
+                }
+            }
+        }
+        int marginParts = 0;
+        for (int i = 0; i < marginSize; i++) {
+            int start = margin[i];
+            if (work[start] == IN_MARGIN && labels[start] != BOUNDARY) {
+                fillMargin(start, marginValue(marginParts++));
+            }
+        }
+
+        //Around each piece, the cells of each old compartment must all lie in one part of the margin
+        //The pieces are visited one after another, so a compartment is only checked against the part found beside the same piece
+        clearLabelArrays();
+        for (int i = 0; i < pieceCellCount; i++) {
+            int cell = pieceCells[i];
+            if (labels[cell] != BOUNDARY) {
+                inRegion[labels[cell]]++;
+            }
+
+            int piece = regionValue(work[cell]);
+            for (int j = 0; j < steps.length; j++) {
+                int neighbor = neighbor(cell, adjacent.dx[j], adjacent.dy[j]);
+                if (neighbor == -1 || work[neighbor] <= 0 || labels[neighbor] == BOUNDARY) {
+                    continue;
+                }
+
+                int label = labels[neighbor];
+                if (partPiece[label] != piece + 1) {
+                    partPiece[label] = piece + 1;
+                    partOf[label] = work[neighbor];
+                } else if (partOf[label] != work[neighbor]) {
+                    return false;
+                }
+            }
+        }
+
+        //Flood fill the new compartments of the region, finding the old compartment each one joins
+        for (int i = 0; i < regionSize; i++) {
+            work[region[i]] = UNASSIGNED;
+        }
+        if (joined.length < regionSize) {
+            joined = new int[region.length];
+        }
+        int components = 0;
+        for (int i = 0; i < regionSize; i++) {
+            int start = region[i];
+            if (work[start] != UNASSIGNED) {
+                continue;
+            }
+            if (onMembrane(start)) {
+                work[start] = ON_MEMBRANE;
+                continue;
+            }
+
+            int component = components++;
+            int label = fillRegion(start, regionValue(component), true);
+            if (label == BOUNDARY) {
+                return false;
+            }
+
+            //A compartment which joins none outside the region, and is too large to be a pocket,
+            //must be the whole of a compartment which lay within the region. It keeps that label
+            if (label == UNLABELED && filledCount >= MIN_CELL_AREA) {
+                label = previousLabel(filledCount);
+                if (label == BOUNDARY || !within(label) || kept[label]) {
+                    return false;
+                }
+                kept[label] = true;
+            }
+            joined[component] = label;
+        }
+
+        //Other compartments which lay within the region have vanished, which only pockets may do
+        for (int label = 0; label < compartmentCount; label++) {
+            if (within(label) && !kept[label]) {
+                if (inRegion[label] >= MIN_CELL_AREA) {
+                    return false;
+                }
+                freeLabels = append(freeLabels, freeCount++, label);
+            }
+        }
+        for (int component = 0; component < components; component++) {
+            if (joined[component] == UNLABELED) {
+                joined[component] = freeCount > 0 ? freeLabels[--freeCount] : compartmentCount++;
+            }
+        }
+
+        for (int i = 0; i < regionSize; i++) {
+            int cell = region[i];
+            labels[cell] = work[cell] == ON_MEMBRANE ? BOUNDARY : joined[regionValue(work[cell])];
+        }
+        cellsStale = true;
+        return true;
+    }
+
+    /**
+     * Sizes the arrays indexed by label for a repair, and clears them
+     */
+    private void clearLabelArrays() {
+        if (inRegion.length < compartmentCount) {
+            int length = Math.max(compartmentCount, 2 * inRegion.length);
+            inRegion = new int[length];
+            kept = new boolean[length];
+            partPiece = new int[length];
+            partOf = new int[length];
+        } else {
+            Arrays.fill(inRegion, 0, compartmentCount, 0);
+            Arrays.fill(kept, 0, compartmentCount, false);
+            Arrays.fill(partPiece, 0, compartmentCount, 0);
+        }
+    }
+
+    /**
+     * @return True if a compartment lay entirely within the region before the repair, so is relabeled along with it
+     */
+    private boolean within(int label) {
+        return inRegion[label] > 0 && partPiece[label] == 0;
+    }
+
+    /**
+     * @return The single label held before the repair by the cells just filled by fillRegion, ignoring membranes,
+     * or BOUNDARY if they held several
+     */
+    private int previousLabel(int count) {
+        int label = BOUNDARY;
+        for (int i = 0; i < count; i++) {
+            int previous = labels[queue[i]];
+            if (previous != BOUNDARY) {
+                if (label != BOUNDARY && label != previous) {
+                    return BOUNDARY;
+                }
+                label = previous;
+            }
+        }
+        return label;
+    }
+
+    private void markRegion(int cell) {
+        if (work[cell] == 0) {
+            work[cell] = UNASSIGNED;
+            region = append(region, regionSize++, cell);
+        }
+    }
+
+    /**
+     * Flood fills the unassigned cells of the region from a start cell, and sets filledCount
+     *
+     * @param membranesBlock If false, every step between adjacent cells is taken
+     * @return The old label of the compartment outside the region which the filled cells join,
+     * UNLABELED if they join none, or BOUNDARY if they join several (only if membranesBlock)
+     */
+    private int fillRegion(int start, int value, boolean membranesBlock) {
+        int joined = UNLABELED;
+        boolean joinedSeveral = false;
+
+        work[start] = value;
+        queue[0] = start;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int cell = queue[head++];
+            int location = PackedLocation.pack(cell % size, cell / size);
+
+            for (int i = 0; i < steps.length; i++) {
+                int neighbor = neighbor(cell, adjacent.dx[i], adjacent.dy[i]);
+                if (neighbor == -1 || (work[neighbor] != UNASSIGNED && (!membranesBlock || work[neighbor] < 0))) {
+                    continue;
+                }
+                if (membranesBlock && membranes.crosses(location, PackedLocation.ORIGIN, steps[i], null, null)) {
+                    continue;
+                }
+
+                if (work[neighbor] == UNASSIGNED) {
+                    work[neighbor] = value;
+                    queue[tail++] = neighbor;
+                } else if (labels[neighbor] == BOUNDARY) {
+                    //Only seen if a step onto a membrane atom does not cross it
+                    joinedSeveral = true;
+                } else if (joined == UNLABELED) {
+                    joined = labels[neighbor];
+                } else if (joined != labels[neighbor]) {
+                    joinedSeveral = true;
+                }
+            }
+        }
+
+        filledCount = tail;
+        return joinedSeveral ? BOUNDARY : joined;
+    }
+
+    /**
+     * Flood fills the margin from a start cell, which is not on a membrane
+     */
+    private void fillMargin(int start, int value) {
+        work[start] = value;
+        queue[0] = start;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int cell = queue[head++];
+            int location = PackedLocation.pack(cell % size, cell / size);
+
+            for (int i = 0; i < steps.length; i++) {
+                int neighbor = neighbor(cell, adjacent.dx[i], adjacent.dy[i]);
+                if (neighbor != -1 && work[neighbor] == IN_MARGIN && labels[neighbor] != BOUNDARY
+                        && !membranes.crosses(location, PackedLocation.ORIGIN, steps[i], null, null)) {
+                    work[neighbor] = value;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+    }
+
+    private static int regionValue(int id) {
+        return -3 - id;
+    }
+
+    private static int marginValue(int id) {
+        return 2 + id;
+    }
+
+    private static int[] append(int[] cells, int count, int cell) {
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, 2 * count);
+        }
+        cells[count] = cell;
+        return cells;
+    }
+
+    /**
+     * @return The index of the cell at an offset from another, or -1 if it lies off a bounded map
+     */
+    private int neighbor(int cell, int dx, int dy) {
+        int x = cell % size + dx;
+        int y = cell / size + dy;
+        if (toroidal) {
+            x = ToroidalLocation.wrap(x, size);
+            y = ToroidalLocation.wrap(y, size);
+        } else if (x < 0 || y < 0 || x >= size || y >= size) {
+            return -1;
+        }
+        return y * size + x;
+    }
+
+    private boolean onMembrane(int cell) {
+        return membranes.crosses(PackedLocation.pack(cell % size, cell / size), PackedLocation.ORIGIN, PackedLocation.ORIGIN, null, null);
+    }
+
+    /**
+     * Decides which compartments are living cells
+     */
+    private void findCells() {
+        if (enclosed.length < compartmentCount) {
+            enclosed = new boolean[compartmentCount];
+        }
+
+        int[] sizes = new int[compartmentCount];
+        for (int label : labels) {
+            if (label != BOUNDARY) {
+                sizes[label]++;
+            }
+        }
+
+        int outside = 0;
+        for (int label = 0; label < compartmentCount; label++) {
+            enclosed[label] = sizes[label] >= MIN_CELL_AREA;
+            if (sizes[label] > sizes[outside]) {
+                outside = label;
+            }
+        }
+
+        if (toroidal) {
+            if (compartmentCount > 0) {
+                enclosed[outside] = false;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                markOutside(labels[i]);
+                markOutside(labels[(size - 1) * size + i]);
+                markOutside(labels[i * size]);
+                markOutside(labels[i * size + size - 1]);
+            }
+        }
+
+        cellCount = 0;
+        for (int label = 0; label < compartmentCount; label++) {
+            if (enclosed[label]) {
+                cellCount++;
+            }
+        }
+        cellsStale = false;
+    }
+
+    private void markOutside(int label) {
+        if (label != BOUNDARY) {
+            enclosed[label] = false;
+        }
+    }
+
+    /**
+     * A division is counted whenever one living cell becomes several
+     * Each new cell is matched to the old cell which held its first labeled location
+     */
+    private void countDivisions(int[] previousLabels) {
+        int[] parents = new int[compartmentCount];
+        for (int label = 0; label < compartmentCount; label++) {
+            parents[label] = BOUNDARY;
+        }
+
+        for (int i = 0; i < labels.length; i++) {
+            int label = labels[i];
+            int previous = previousLabels[i];
+            if (label != BOUNDARY && parents[label] == BOUNDARY && enclosed[label]
+                    && previous != BOUNDARY && previous < previousEnclosed.length && previousEnclosed[previous]) {
+                parents[label] = previous;
+            }
+        }
+
+        int[] children = new int[previousEnclosed.length];
+        for (int label = 0; label < compartmentCount; label++) {
+            if (parents[label] != BOUNDARY) {
+                if (children[parents[label]]++ > 0) {
+                    divisionCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The label of the compartment containing the given location as of the last update,
+     * or BOUNDARY if it held a membrane atom. Every location is in compartment 0 before the first update
+     */
+    public int getLabel(int x, int y) {
+        if (labels == null) {
+            return 0;
+        }
+        if (toroidal) {
+            x = ToroidalLocation.wrap(x, size);
+            y = ToroidalLocation.wrap(y, size);
+        }
+        return labels[y * size + x];
+    }
+
+    /**
+     * Checks if nothing separated two locations at the last update
+     * The location of a membrane atom touches every compartment next to it
+     */
+    public boolean sameCompartment(int x1, int y1, int x2, int y2) {
+        int label1 = getLabel(x1, y1);
+        int label2 = getLabel(x2, y2);
+        if (label1 != BOUNDARY && label2 != BOUNDARY) {
+            return label1 == label2;
+        }
+
+        if (label1 == BOUNDARY && label2 == BOUNDARY) {
+            for (int i = 0; i < adjacent.size(); i++) {
+                int touching = neighborLabel(x1, y1, adjacent.dx[i], adjacent.dy[i]);
+                if (touching != BOUNDARY && touches(x2, y2, touching)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        return label1 == BOUNDARY ? touches(x1, y1, label2) : touches(x2, y2, label1);
+    }
+
+    /**
+     * @return True if a cell next to the given location is in the given compartment
+     */
+    private boolean touches(int x, int y, int label) {
+        for (int i = 0; i < adjacent.size(); i++) {
+            if (neighborLabel(x, y, adjacent.dx[i], adjacent.dy[i]) == label) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int neighborLabel(int x, int y, int dx, int dy) {
+        x += dx;
+        y += dy;
+        if (!toroidal && (x < 0 || y < 0 || x >= size || y >= size)) {
+            return BOUNDARY;
+        }
+        return getLabel(x, y);
+    }
+
+    /**
+     * @return The number of living cells: compartments enclosed by membranes
+     */
+    public synchronized int getCellCount() {
+        update();
+        if (cellsStale) {
+            findCells();
+        }
+        return cellCount;
+    }
+
+    /**
+     * @return The number of times a living cell has split into several, since this index was created
+     * Only divisions between two updates are seen, so the index should be updated regularly
+     */
+    public synchronized long getDivisionCount() {
+        update();
+        return divisionCount;
+    }
+
+    public synchronized int getCompartmentCount() {
+        update();
+        return compartmentCount - freeCount;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+/**
+ * Precomputed answers to SquareMap.crossed for two short lines
+ * <p>
+ * Bonds never stretch beyond two units (see Simulator.willStretchBonds), so a crossing test between two bonds
+ * only depends on a small set of relative offsets: the first bond, the start of the second bond relative to the first,
+ * and the second bond itself. Every such combination is computed once with SquareMap.crossedGeometry
+ * <p>
+ * Two short lines can only touch if the start of the second lies within REACH of the start of the first,
+ * so combinations outside of the table are never crossed
+ */
+public final class CrossingTable {
+
+    //The longest line covered by the table, which is the maximum length of a bond
+    public static final int MAX_LENGTH = MooreNeighborhood.PAIR_DISTANCE;
+
+    private static final int REACH = 2 * MAX_LENGTH;
+
+    private static final int LINE_WIDTH = 2 * MAX_LENGTH + 1;
+    private static final int REACH_WIDTH = 2 * REACH + 1;
+
+    //One bit for each combination of offsets and strict flag
+    private static final long[] TABLE = build();
+
+    private CrossingTable() {
+    }
+
+    /**
+     * @return True if both lines are short enough to be answered by the table
+     */
+    public static boolean covers(int loc11, int loc12, int loc21, int loc22) {
+        return PackedLocation.distance(loc11, loc12) <= MAX_LENGTH && PackedLocation.distance(loc21, loc22) <= MAX_LENGTH;
+    }
+
+    /**
+     * Equivalent to SquareMap.crossed, for lines accepted by covers
+     */
+    public static boolean crossed(int loc11, int loc12, int loc21, int loc22, boolean strict) {
+        int x11 = PackedLocation.getX(loc11);
+        int y11 = PackedLocation.getY(loc11);
+        int startX = PackedLocation.getX(loc21) - x11;
+        int startY = PackedLocation.getY(loc21) - y11;
+
+        if (startX < -REACH || startX > REACH || startY < -REACH || startY > REACH) {
+            return false;
+        }
+
+        int index = index(PackedLocation.getX(loc12) - x11, PackedLocation.getY(loc12) - y11, startX, startY,
+                PackedLocation.getX(loc22) - PackedLocation.getX(loc21), PackedLocation.getY(loc22) - PackedLocation.getY(loc21), strict);
+        return (TABLE[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param lineX  Offset from the start to the end of the first line
+     * @param startX Offset from the start of the first line to the start of the second line
+     * @param endX   Offset from the start to the end of the second line
+     */
+    private static int index(int lineX, int lineY, int startX, int startY, int endX, int endY, boolean strict) {
+        int index = (lineX + MAX_LENGTH) * LINE_WIDTH + lineY + MAX_LENGTH;
+        index = index * REACH_WIDTH + startX + REACH;
+        index = index * REACH_WIDTH + startY + REACH;
+        index = index * LINE_WIDTH + endX + MAX_LENGTH;
+        index = index * LINE_WIDTH + endY + MAX_LENGTH;
+        return index * 2 + (strict ? 1 : 0);
+    }
+
+    private static long[] build() {
+        int bits = LINE_WIDTH * LINE_WIDTH * REACH_WIDTH * REACH_WIDTH * LINE_WIDTH * LINE_WIDTH * 2;
+        long[] table = new long[(bits + 63) / 64];
+
+        for (int lineX = -MAX_LENGTH; lineX <= MAX_LENGTH; lineX++) {
+            for (int lineY = -MAX_LENGTH; lineY <= MAX_LENGTH; lineY++) {
+                for (int startX = -REACH; startX <= REACH; startX++) {
+                    for (int startY = -REACH; startY <= REACH; startY++) {
+                        for (int endX = -MAX_LENGTH; endX <= MAX_LENGTH; endX++) {
+                            for (int endY = -MAX_LENGTH; endY <= MAX_LENGTH; endY++) {
+                                int loc12 = PackedLocation.pack(lineX, lineY);
+                                int loc21 = PackedLocation.pack(startX, startY);
+                                int loc22 = PackedLocation.pack(startX + endX, startY + endY);
+
+                                for (int strict = 0; strict < 2; strict++) {
+                                    if (SquareMap.crossedGeometry(PackedLocation.ORIGIN, loc12, loc21, loc22, strict == 1)) {
+                                        int index = index(lineX, lineY, startX, startY, endX, endY, strict == 1);
+                                        table[index >>> 6] |= 1L << index;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.atom.Atom;
+import adlytempleton.atom.AtomStore;
+import adlytempleton.reaction.ReactionData;
+import adlytempleton.simulator.SimulatorConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Spatial index of the enzyme map of a SquareMap, used to find the enzymes catalyzing a reaction near a location
+ * <p>
+ * The map is divided into square buckets of BUCKET_SIZE cells. For each reaction, every enzyme catalyzing it
+ * is listed in the bucket containing the enzyme, so a query only visits the buckets around the reactants.
+ * <p>
+ * The index mirrors AbstractMap.enzymes, and is changed alongside it under the write lock of the enzyme map.
+ * The location and bucket of each indexed atom are remembered, so an atom is always removed from the bucket it was added to,
+ * even if its reactions have since changed without updating the enzyme map.
+ * Moves only take the write lock when the atom changes bucket, see move
+ * A CatalysisField is kept alongside the buckets, which counts the enzymes within ENZYME_RANGE of each cell
+ */
+public class EnzymeIndex {
+
+    private static final int BUCKET_BITS = 3;
+    private static final int BUCKET_SIZE = 1 << BUCKET_BITS;
+
+    private final AtomStore store;
+    private final int size;
+    private final boolean toroidal;
+    private final int bucketsPerSide;
+
+    //For each reaction, the atoms catalyzing it in each bucket, indexed by bucketY * bucketsPerSide + bucketX
+    private final HashMap<ReactionData, Buckets> reactions = new HashMap<>();
+
+    //The location and reactions under which each atom is indexed
+    private final IdentityHashMap<Atom, Entry> entries = new IdentityHashMap<>();
+
+    private final CatalysisField field;
+
+    public EnzymeIndex(SquareMap map) {
+        this.store = map.getAtomStore();
+        this.size = map.getSize();
+        this.toroidal = map instanceof ToroidalMap;
+        this.bucketsPerSide = (size + BUCKET_SIZE - 1) >> BUCKET_BITS;
+        this.field = new CatalysisField(map, SimulatorConstants.ENZYME_RANGE);
+    }
+
+    /**
+     * Indexes an atom as catalyzing a reaction. Does nothing if it is already indexed under that reaction
+     */
+    public void add(ReactionData rxn, Atom atom) {
+        Entry entry = entries.get(atom);
+        if (entry == null) {
+            int location = locationOf(atom);
+            entry = new Entry(location, bucketOf(location));
+            entries.put(atom, entry);
+            setCatalyst(atom, true);
+        } else if (entry.reactions.contains(rxn)) {
+            return;
+        }
+        entry.reactions.add(rxn);
+        field.add(rxn, entry.location);
+
+        Buckets buckets = reactions.get(rxn);
+        if (buckets == null) {
+            buckets = new Buckets(bucketsPerSide * bucketsPerSide);
+            reactions.put(rxn, buckets);
+        }
+        buckets.add(entry.bucket, atom);
+    }
+
+    public void remove(ReactionData rxn, Atom atom) {
+        Entry entry = entries.get(atom);
+        if (entry == null || !entry.reactions.remove(rxn)) {
+            return;
+        }
+        if (entry.reactions.isEmpty()) {
+            entries.remove(atom);
+            setCatalyst(atom, false);
+        }
+        field.remove(rxn, entry.location);
+
+        Buckets buckets = reactions.get(rxn);
+        buckets.remove(entry.bucket, atom);
+        if (buckets.count == 0) {
+            reactions.remove(rxn);
+        }
+    }
+
+    public void clear() {
+        for (Atom atom : entries.keySet()) {
+            setCatalyst(atom, false);
+        }
+        reactions.clear();
+        entries.clear();
+        field.clear();
+    }
+
+    /**
+     * Moves the counts of an indexed atom to its current location
+     * Should be called after every move of an atom for which AtomStore.isCatalyst is true
+     * <p>
+     * Only the counts of cells near the atom are changed, so this needs just the read lock,
+     * as long as no other thread moves atoms near the same cells
+     *
+     * @return True if the atom has left the bucket it is listed in, in which case rebucket must be called under the write lock
+     */
+    public boolean move(Atom atom) {
+        Entry entry = entries.get(atom);
+        if (entry == null) {
+            return false;
+        }
+
+        int location = locationOf(atom);
+        if (location == entry.location) {
+            return false;
+        }
+
+        int offset = offset(entry.location, location);
+        for (ReactionData rxn : entry.reactions) {
+            field.move(rxn, entry.location, location, offset);
+        }
+        entry.location = location;
+        return bucketOf(location) != entry.bucket;
+    }
+
+    /**
+     * Lists an atom in the bucket of the location it was last moved to
+     */
+    public void rebucket(Atom atom) {
+        Entry entry = entries.get(atom);
+        if (entry == null) {
+            return;
+        }
+
+        int bucket = bucketOf(entry.location);
+        if (bucket == entry.bucket) {
+            return;
+        }
+
+        for (ReactionData rxn : entry.reactions) {
+            Buckets buckets = reactions.get(rxn);
+            buckets.remove(entry.bucket, atom);
+            buckets.add(bucket, atom);
+        }
+        entry.bucket = bucket;
+    }
+
+    /**
+     * @return The counts of enzymes within ENZYME_RANGE of each cell
+     */
+    public CatalysisField getField() {
+        return field;
+    }
+
+    /**
+     * Collects every enzyme catalyzing a reaction which may lie within range of either of two nearby locations
+     * Enzymes are collected by bucket, so some may lie further away than range. Each enzyme is collected once
+     *
+     * @param location1 First location
+     * @param offset    Shortest offset from location1 to the second location, packed with PackedLocation
+     * @param result    List to add the enzymes to
+     */
+    public void collect(ReactionData rxn, SquareLocation location1, int offset, int range, List<Atom> result) {
+        Buckets buckets = reactions.get(rxn);
+        if (buckets == null) {
+            return;
+        }
+
+        int x1 = location1.getX();
+        int y1 = location1.getY();
+        int x2 = x1 + PackedLocation.getX(offset);
+        int y2 = y1 + PackedLocation.getY(offset);
+
+        int[] columns = new int[bucketsPerSide];
+        int columnCount = bucketsAlong(Math.min(x1, x2) - range, Math.max(x1, x2) + range, columns);
+        int[] rows = new int[bucketsPerSide];
+        int rowCount = bucketsAlong(Math.min(y1, y2) - range, Math.max(y1, y2) + range, rows);
+
+        for (int i = 0; i < rowCount; i++) {
+            for (int j = 0; j < columnCount; j++) {
+                ArrayList<Atom> bucket = buckets.buckets[rows[i] * bucketsPerSide + columns[j]];
+                if (bucket != null) {
+                    result.addAll(bucket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the buckets along one axis which cover the cells from low to high
+     * On a toroidal map, the cells are wrapped, and each bucket is listed only once
+     *
+     * @return The number of buckets written into result
+     */
+    private int bucketsAlong(int low, int high, int[] result) {
+        if (!toroidal) {
+            low = Math.max(low, 0);
+            high = Math.min(high, size - 1);
+            int count = 0;
+            for (int bucket = low >> BUCKET_BITS; bucket <= high >> BUCKET_BITS && low <= high; bucket++) {
+                result[count++] = bucket;
+            }
+            return count;
+        }
+
+        if (high - low + 1 >= size) {
+            for (int bucket = 0; bucket < bucketsPerSide; bucket++) {
+                result[bucket] = bucket;
+            }
+            return bucketsPerSide;
+        }
+
+        //Walk the cells one bucket at a time. The last bucket may be cut short by the edge of the map
+        int count = 0;
+        int cell = low;
+        while (cell <= high) {
+            int wrapped = ToroidalLocation.wrap(cell, size);
+            int bucket = wrapped >> BUCKET_BITS;
+            //The cells may wrap around into the bucket they started in
+            if (count > 0 && bucket == result[0]) {
+                break;
+            }
+            result[count++] = bucket;
+            cell += Math.min((bucket + 1) << BUCKET_BITS, size) - wrapped;
+        }
+        return count;
+    }
+
+    /**
+     * @return The on-grid location of an atom, packed with PackedLocation
+     */
+    private int locationOf(Atom atom) {
+        SquareLocation location = (SquareLocation) atom.getLocation();
+        int x = location.getX();
+        int y = location.getY();
+        if (toroidal) {
+            x = ToroidalLocation.wrap(x, size);
+            y = ToroidalLocation.wrap(y, size);
+        }
+        return PackedLocation.pack(x, y);
+    }
+
+    private int bucketOf(int location) {
+        return (PackedLocation.getY(location) >> BUCKET_BITS) * bucketsPerSide + (PackedLocation.getX(location) >> BUCKET_BITS);
+    }
+
+    /**
+     * @return The shortest offset from one packed location to another
+     */
+    private int offset(int from, int to) {
+        int dx = PackedLocation.getX(to) - PackedLocation.getX(from);
+        int dy = PackedLocation.getY(to) - PackedLocation.getY(from);
+        if (toroidal) {
+            dx = ToroidalLocation.shortestOffset(dx, size);
+            dy = ToroidalLocation.shortestOffset(dy, size);
+        }
+        return PackedLocation.pack(dx, dy);
+    }
+
+    private void setCatalyst(Atom atom, boolean catalyst) {
+        if (store.contains(atom)) {
+            store.setCatalyst(atom.getId(), catalyst);
+        }
+    }
+
+    /**
+     * The buckets of a single reaction
+     */
+    private static class Buckets {
+        private final ArrayList<Atom>[] buckets;
+
+        //The number of atoms in all buckets
+        private int count;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Buckets(int bucketCount) {
+            buckets = new ArrayList[bucketCount];
+        }
+
+        private void add(int bucket, Atom atom) {
+            if (buckets[bucket] == null) {
+                buckets[bucket] = new ArrayList<>();
+            }
+            buckets[bucket].add(atom);
+            count++;
+        }
+
+        private void remove(int bucket, Atom atom) {
+            buckets[bucket].remove(atom);
+            count--;
+        }
+    }
+
+    private static class Entry {
+        //Packed with PackedLocation
+        private int location;
+        //The bucket the atom is listed in, which lags behind location until rebucket is called
+        private int bucket;
+        private final ArrayList<ReactionData> reactions = new ArrayList<>(2);
+
+        private Entry(int location, int bucket) {
+            this.location = location;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.atom.Atom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A bounded square map whose grid lives in a memory-mapped file instead of the Java heap
+ * <p>
+ * Each cell holds the AtomStore id of its atom plus one, or 0 if the cell is empty.
+ * The type and state of each atom are already kept in the primitive arrays of the AtomStore,
+ * so the grid itself contains no object references for the garbage collector to scan.
+ * <p>
+ * A single mapping is limited to 2GB, so the grid is split into segments of SEGMENT_CELLS cells
+ * Apart from storage, this behaves exactly like SquareMap
+ */
+public class MappedGridMap extends SquareMap {
+
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_CELLS = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_CELLS - 1;
+
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Maps the grid to a temporary file, which is deleted on exit
+     */
+    public MappedGridMap(int size, boolean showGUI) {
+        this(size, showGUI, null);
+    }
+
+    /**
+     * @param file The file backing the grid, or null to use a temporary file
+     *             An existing file is truncated, as its cells would refer to atoms of another AtomStore
+     */
+    public MappedGridMap(int size, boolean showGUI, File file) {
+        super(size, showGUI, false);
+
+        long cells = (long) size * size;
+        segments = new MappedByteBuffer[(int) ((cells + SEGMENT_CELLS - 1) >> SEGMENT_BITS)];
+
+        try {
+            if (file == null) {
+                file = File.createTempFile("achem-grid", ".bin");
+                file.deleteOnExit();
+            }
+
+            //The mappings remain valid after the file is closed
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                //Mapping past the end of the file extends it with zeroes, which are empty cells
+                raf.setLength(0);
+                FileChannel channel = raf.getChannel();
+                for (int i = 0; i < segments.length; i++) {
+                    long start = (long) i << SEGMENT_BITS;
+                    long length = Math.min(SEGMENT_CELLS, cells - start);
+                    segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * 4, length * 4);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map grid file", e);
+        }
+    }
+
+    private long longCellIndex(int x, int y) {
+        return (long) y * getSize() + x;
+    }
+
+    @Override
+    protected Atom getCell(int x, int y) {
+        long index = longCellIndex(x, y);
+        int id = segments[(int) (index >> SEGMENT_BITS)].getInt((int) (index & SEGMENT_MASK) << 2) - 1;
+        return id < 0 ? null : atomStore.getAtom(id);
+    }
+
+    @Override
+    protected void setCell(int x, int y, Atom atom) {
+        long index = longCellIndex(x, y);
+        segments[(int) (index >> SEGMENT_BITS)].putInt((int) (index & SEGMENT_MASK) << 2, atom == null ? 0 : atom.getId() + 1);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed table of the cell offsets in a Moore neighborhood of a given range (not including the center)
+ * <p>
+ * Offsets are listed in the same order as getLocationsWithinRange: by dx, then by dy
+ * Tables are immutable and shared, so they are built once per range
+ */
+public final class MooreNeighborhood {
+
+    private static volatile MooreNeighborhood[] cache = new MooreNeighborhood[0];
+
+    public final int range;
+
+    //Offsets of each cell in the neighborhood
+    public final int[] dx;
+    public final int[] dy;
+
+    //The same offsets, as locations which can be passed to ILocation.add
+    public final SquareLocation[] offsets;
+
+    //Every unordered pair of cells (pairFirst[k], pairSecond[k]) at most PAIR_DISTANCE apart, as indices into the offsets
+    //PAIR_DISTANCE is the maximum length of a bond, so these are all the pairs of atoms which may react together
+    public static final int PAIR_DISTANCE = 2;
+    public final int[] pairFirst;
+    public final int[] pairSecond;
+
+    private MooreNeighborhood(int range) {
+        this.range = range;
+
+        int width = 2 * range + 1;
+        int size = width * width - 1;
+
+        dx = new int[size];
+        dy = new int[size];
+        offsets = new SquareLocation[size];
+
+        int i = 0;
+        for (int x = -range; x <= range; x++) {
+            for (int y = -range; y <= range; y++) {
+                if (x != 0 || y != 0) {
+                    dx[i] = x;
+                    dy[i] = y;
+                    offsets[i] = new SquareLocation(x, y);
+                    i++;
+                }
+            }
+        }
+
+        int pairs = 0;
+        int[] first = new int[size * size];
+        int[] second = new int[size * size];
+        for (int a = 0; a < size; a++) {
+            for (int b = a + 1; b < size; b++) {
+                if (Math.max(Math.abs(dx[a] - dx[b]), Math.abs(dy[a] - dy[b])) <= PAIR_DISTANCE) {
+                    first[pairs] = a;
+                    second[pairs] = b;
+                    pairs++;
+                }
+            }
+        }
+        pairFirst = Arrays.copyOf(first, pairs);
+        pairSecond = Arrays.copyOf(second, pairs);
+    }
+
+    /**
+     * @return The shared table for the given range
+     */
+    public static MooreNeighborhood ofRange(int range) {
+        MooreNeighborhood[] tables = cache;
+        if (range < tables.length && tables[range] != null) {
+            return tables[range];
+        }
+
+        synchronized (MooreNeighborhood.class) {
+            tables = cache;
+            if (range >= tables.length) {
+                tables = Arrays.copyOf(tables, range + 1);
+            }
+            if (tables[range] == null) {
+                tables[range] = new MooreNeighborhood(range);
+            }
+            cache = tables;
+            return tables[range];
+        }
+    }
+
+    /**
+     * @return The number of cells in the neighborhood
+     */
+    public int size() {
+        return dx.length;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+/**
+ * Helper methods for square grid coordinates packed into a single int
+ * <p>
+ * x is stored in the high 16 bits and y in the low 16 bits, both signed
+ * This supports coordinates and offsets from -32768 to 32767, without allocating a SquareLocation
+ * <p>
+ * The arithmetic mirrors SquareLocation.add, subtract and distance
+ */
+public final class PackedLocation {
+
+    public static final int ORIGIN = 0;
+
+    private PackedLocation() {
+    }
+
+    public static int pack(int x, int y) {
+        return (x << 16) | (y & 0xFFFF);
+    }
+
+    public static int pack(SquareLocation location) {
+        return pack(location.getX(), location.getY());
+    }
+
+    public static int getX(int packed) {
+        return packed >> 16;
+    }
+
+    public static int getY(int packed) {
+        return (short) packed;
+    }
+
+    /**
+     * @return loc offset by other (treated as a vector)
+     */
+    public static int add(int loc, int other) {
+        return pack(getX(loc) + getX(other), getY(loc) + getY(other));
+    }
+
+    /**
+     * @return The offset that must be added to other to get loc
+     */
+    public static int subtract(int loc, int other) {
+        return pack(getX(loc) - getX(other), getY(loc) - getY(other));
+    }
+
+    /**
+     * @return The distance between two locations, with diagonals counting as one unit (as in SquareLocation)
+     */
+    public static int distance(int loc, int other) {
+        return Math.max(Math.abs(getX(loc) - getX(other)), Math.abs(getY(loc) - getY(other)));
+    }
+
+    public static SquareLocation toLocation(int packed) {
+        return new SquareLocation(getX(packed), getY(packed));
+    }
+
+    public static String toString(int packed) {
+        return getX(packed) + "," + getY(packed);
+    }
+}
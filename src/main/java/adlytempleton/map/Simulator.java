@@ -13,12 +13,18 @@
 package adlytempleton.map;
 
 import adlytempleton.atom.Atom;
+import adlytempleton.atom.AtomStore;
 import adlytempleton.atom.EnumType;
 import adlytempleton.reaction.ReactionData;
 import adlytempleton.reaction.ReactionManager;
+import adlytempleton.simulator.SimulationRandom;
 import adlytempleton.simulator.SimulatorConstants;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Created by ATempleton on 11/7/2015.
@@ -31,11 +37,73 @@ public class Simulator {
 
     //The number of the current tick
     public static int ticks = 0;
-    //Stores Locations which have been updated by a reaction or movement
-    //And should be reachecked next tick
-    public HashSet<ILocation> updatedLocations = new HashSet<>();
     AbstractMap map;
 
+    //The regions in which a reaction may take place, as they are within reach of an enzyme
+    //Only a coarse filter for reactAround: whether a reaction is catalyzed is decided by map.isCatalyzed
+    //Null if the map type does not support it, in which case reactions are checked everywhere
+    private ActiveRegions activeRegions;
+
+    //Pairs of opposing offsets, used when adding atoms to a membrane
+    private static final int[][] MEMBRANE_OFFSET_PAIRS = new int[][]{
+            {PackedLocation.pack(0, 1), PackedLocation.pack(0, -1)},
+            {PackedLocation.pack(-1, 0), PackedLocation.pack(1, 0)},
+            {PackedLocation.pack(-1, -1), PackedLocation.pack(1, 1)},
+            {PackedLocation.pack(-1, 1), PackedLocation.pack(1, -1)}
+    };
+
+    //Width of the blocks used by UpdateOrder.BLOCKS
+    private static final int ORDER_BLOCK_SIZE = 8;
+
+    //NTH_SET_BIT[mask][n] is the index of the nth set bit of an 8-bit mask
+    private static final byte[][] NTH_SET_BIT = new byte[256][];
+
+    static {
+        for (int mask = 0; mask < 256; mask++) {
+            NTH_SET_BIT[mask] = new byte[Integer.bitCount(mask)];
+            int n = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((mask & (1 << bit)) != 0) {
+                    NTH_SET_BIT[mask][n++] = (byte) bit;
+                }
+            }
+        }
+    }
+
+    //Reusable buffers for neighborhood queries, so that a tick does not allocate lists
+    //Each buffer is only used by one method, as the methods call each other
+    //Positions are packed offsets (see PackedLocation) from the location the query was made around
+    private Atom[] tickOrder = new Atom[0];
+    //Buffers for UpdateOrder.BLOCKS
+    private int[] blockCursors = new int[0];
+    private int[] blockOrder = new int[0];
+    private int[] atomBlocks = new int[0];
+    //Atoms bucketed by tile during a parallel tick, with the bounds of each tile in tileStarts
+    private Atom[] tileAtoms = new Atom[0];
+    private int[] atomTiles = new int[0];
+    private int[] tileStarts = new int[0];
+    private int[] moveCandidates = new int[MooreNeighborhood.ofRange(1).size()];
+    private Atom[] adjacentAtoms = new Atom[MooreNeighborhood.ofRange(1).size()];
+    private Atom[] reactionNeighbors = new Atom[0];
+    private boolean[] reactionCatalyzed = new boolean[0];
+
+    //The source of all randomness in this simulation
+    //Seeded from SimulatorConstants.RANDOM_SEED, so that runs can be reproduced
+    private final Random random = SimulationRandom.fromConstants();
+
+    //Threads for parallel ticks, created on first use
+    private ForkJoinPool pool;
+
+    //Simulators which process tiles on each thread of the pool, sharing this map
+    private final ThreadLocal<Simulator> workers = new ThreadLocal<Simulator>() {
+        @Override
+        protected Simulator initialValue() {
+            Simulator worker = new Simulator(map);
+            worker.activeRegions = activeRegions;
+            return worker;
+        }
+    };
+
     /**
      * Constructs a new map
      *
@@ -43,9 +111,21 @@ public class Simulator {
      */
     public Simulator(AbstractMap map) {
         this.map = map;
+
+        if (map instanceof SquareMap) {
+            activeRegions = new ActiveRegions(((SquareMap) map).getSize(), map instanceof ToroidalMap);
+        }
     }
 
 
+    /**
+     * @return The random number generator of this simulation
+     * Must only be used on the thread running this Simulator
+     */
+    public Random getRandom() {
+        return random;
+    }
+
     /**
      * Main simulation method. Updates all elements of the simulation
      *
@@ -55,75 +135,365 @@ public class Simulator {
 
         Simulator.ticks = ticks;
 
-        Random rand = new Random();
+        Random rand = random;
 
-        //Move all atoms
-        List<Atom> atoms = new ArrayList<>(map.getAllAtoms());
-        Collections.shuffle(atoms, rand);
-        for (Atom atom : atoms) {
-            ArrayList<ILocation> nearbySpaces = map.getLocationsWithinRange(atom.getLocation(), 1);
+        //Move all atoms, in a random order
+        //The atoms are copied into a reusable buffer, as the registry itself must not be reordered
+        AtomStore store = map.getAtomStore();
+        if (tickOrder.length < store.size()) {
+            tickOrder = new Atom[Math.max(store.size(), 2 * tickOrder.length)];
+        }
+        int atomCount;
+        if (SimulatorConstants.UPDATE_ORDER == UpdateOrder.BLOCKS && map instanceof SquareMap) {
+            atomCount = orderByBlocks(store, rand);
+        } else {
+            atomCount = store.copyAtoms(tickOrder);
+            shuffle(tickOrder, 0, atomCount, rand);
+        }
 
-            Iterator iter = nearbySpaces.iterator();
-            while (iter.hasNext()) {
-                ILocation location = (ILocation) iter.next();
-                if (map.getAtomAtLocation(location) != null || willStretchBonds(atom, location) || willCrossBonds(atom, location)) {
-                    iter.remove();
-                }
+        updateActiveRegions();
+
+        //Compartments are only relabeled here, as no atom moves between ticks
+        if (SimulatorConstants.COMPARTMENT_BLOCKING && map instanceof SquareMap) {
+            ((SquareMap) map).getCompartments().update();
+        }
+
+        int tiles = getTilesPerSide();
+        if (SimulatorConstants.PARALLEL_TICK && tiles >= 2) {
+            tickParallel(ticks, atomCount, tiles, rand);
+        } else {
+            for (int k = 0; k < atomCount; k++) {
+                tickAtom(tickOrder[k], ticks, rand);
             }
+        }
+
+        //Re-render after components have changed
+        map.render();
+    }
+
+    /**
+     * Fisher-Yates shuffle of part of an array, as in Collections.shuffle
+     */
+    private static void shuffle(Atom[] atoms, int start, int end, Random rand) {
+        for (int i = end - start; i > 1; i--) {
+            int j = rand.nextInt(i);
+            Atom swap = atoms[start + i - 1];
+            atoms[start + i - 1] = atoms[start + j];
+            atoms[start + j] = swap;
+        }
+    }
+
+    /**
+     * Fills tickOrder for UpdateOrder.BLOCKS
+     * Atoms are bucketed by block with a counting sort over the locations in the AtomStore,
+     * with the buckets laid out in a random order and then shuffled individually
+     *
+     * @return The number of atoms in tickOrder
+     */
+    private int orderByBlocks(AtomStore store, Random rand) {
+        int blocksPerSide = (((SquareMap) map).getSize() + ORDER_BLOCK_SIZE - 1) / ORDER_BLOCK_SIZE;
+        int blockCount = blocksPerSide * blocksPerSide;
+        int atomCount = store.size();
+
+        if (blockCursors.length != blockCount) {
+            blockCursors = new int[blockCount];
+            blockOrder = new int[blockCount];
+            for (int block = 0; block < blockCount; block++) {
+                blockOrder[block] = block;
+            }
+        } else {
+            Arrays.fill(blockCursors, 0);
+        }
+        if (atomBlocks.length < atomCount) {
+            atomBlocks = new int[tickOrder.length];
+        }
 
-            //A chance of remaining stationary
-            nearbySpaces.add(atom.getLocation());
+        //Count the atoms in each block
+        for (int id = 0; id < atomCount; id++) {
+            int block = (store.getY(id) / ORDER_BLOCK_SIZE) * blocksPerSide + store.getX(id) / ORDER_BLOCK_SIZE;
+            atomBlocks[id] = block;
+            blockCursors[block]++;
+        }
 
+        //Shuffle the blocks, then convert the counts into start positions in that order
+        for (int i = blockCount; i > 1; i--) {
+            int j = rand.nextInt(i);
+            int swap = blockOrder[i - 1];
+            blockOrder[i - 1] = blockOrder[j];
+            blockOrder[j] = swap;
+        }
+        int position = 0;
+        for (int block : blockOrder) {
+            int count = blockCursors[block];
+            blockCursors[block] = position;
+            position += count;
+        }
 
-            if (nearbySpaces.size() > 0) {
+        for (int id = 0; id < atomCount; id++) {
+            tickOrder[blockCursors[atomBlocks[id]]++] = store.getAtom(id);
+        }
 
-                ILocation newLocation = nearbySpaces.get(rand.nextInt(nearbySpaces.size()));
+        //Each cursor now marks the end of its block
+        int start = 0;
+        for (int block : blockOrder) {
+            shuffle(tickOrder, start, blockCursors[block], rand);
+            start = blockCursors[block];
+        }
+
+        return atomCount;
+    }
 
-                if (newLocation != atom.getLocation()) {
+    /**
+     * Moves a single atom, and performs any reactions caused by the movement
+     */
+    private void tickAtom(Atom atom, int ticks, Random rand) {
+        //Skip atoms removed from the map earlier in this tick
+        if (atom.getId() == -1) {
+            return;
+        }
 
-                    map.move(atom, newLocation);
-                    if (atom.state != 0) {
-                        reactAround(newLocation);
+        MooreNeighborhood adjacent = MooreNeighborhood.ofRange(1);
+        ILocation location = atom.getLocation();
+        int emptyCells = map.getEmptyNeighborMask(location);
+
+        //The index in adjacent of the cell to move into, or -1 to remain stationary
+        int target;
+
+        if (atom.getBondCount() == 0) {
+            //Unbonded atoms, including all food, can neither stretch nor cross bonds
+            //So any empty cell is a candidate, and the last choice is a chance of remaining stationary
+            int candidates = Integer.bitCount(emptyCells);
+            int choice = rand.nextInt(candidates + 1);
+            target = choice == candidates ? -1 : NTH_SET_BIT[emptyCells][choice];
+        } else {
+            //Collect the indices of all empty adjacent cells the atom may legally move into
+            int candidates = 0;
+            for (int i = 0; i < adjacent.size(); i++) {
+                if ((emptyCells & (1 << i)) != 0) {
+                    int move = PackedLocation.pack(adjacent.dx[i], adjacent.dy[i]);
+                    if (!willStretchBonds(atom, move) && !willCrossBonds(atom, move)) {
+                        moveCandidates[candidates++] = i;
                     }
+                }
+            }
 
-                    if (atom.type == EnumType.CAUSTIC && ticks > SimulatorConstants.CAUSTIC_DELAY) {
-                        for (Atom nearbyAtom : map.getAdjacentAtoms(newLocation)) {
-                            if (nearbyAtom.type != EnumType.A || nearbyAtom.bonds.size() < 2) {
-                                //Prevents caustic agent from affecting atoms through membranes
-                                if (!doesBondCross(atom, nearbyAtom)) {
-                                    nearbyAtom.state = 0;
-                                    nearbyAtom.unbondAll();
-                                    map.removeFromEnzymeMap(atom);
-                                    nearbyAtom.setReactions(new ReactionData[10]);
-                                }
-                            }
+            //The last choice is a chance of remaining stationary
+            int choice = rand.nextInt(candidates + 1);
+            target = choice == candidates ? -1 : moveCandidates[choice];
+        }
+
+        if (target != -1) {
+
+            ILocation newLocation = location.add(adjacent.offsets[target]);
+            map.move(atom, newLocation);
+
+            //An enzyme extends its reach as it moves
+            if (activeRegions != null && map.getAtomStore().isEnzyme(atom.getId())) {
+                activeRegions.mark(newLocation, getCatalysisReach());
+            }
+
+            if (atom.getState() != 0) {
+                reactAround(newLocation);
+            }
+
+            if (atom.getType() == EnumType.CAUSTIC && ticks > SimulatorConstants.CAUSTIC_DELAY) {
+                int adjacentCount = map.getAdjacentAtoms(newLocation, 1, adjacentAtoms);
+                for (int i = 0; i < adjacentCount; i++) {
+                    Atom nearbyAtom = adjacentAtoms[i];
+                    if (nearbyAtom.getType() != EnumType.A || nearbyAtom.getBondCount() < 2) {
+                        //Prevents caustic agent from affecting atoms through membranes
+                        if (!doesBondCross(atom, nearbyAtom)) {
+                            nearbyAtom.setState(0);
+                            nearbyAtom.unbondAll();
+                            map.removeFromEnzymeMap(atom);
+                            nearbyAtom.setReactions(new ReactionData[10]);
                         }
                     }
+                }
+            }
 
-                    //addToMembrane(atom);
-                    pinchMembrane(atom);
+            //addToMembrane(atom);
+            pinchMembrane(atom);
+        }
+    }
+
+    /**
+     * The furthest distance from an enzyme at which reactAround may find a reaction it catalyzes
+     * The enzyme must be within ENZYME_RANGE of a reactant, which lies within REACTION_RANGE of the central location
+     */
+    private static int getCatalysisReach() {
+        return SimulatorConstants.ENZYME_RANGE + SimulatorConstants.REACTION_RANGE;
+    }
+
+    /**
+     * Rebuilds the active regions at the start of a tick
+     * These cover the reach of every enzyme, including those created by reactions during the last tick
+     * Enzymes which move or are created during the tick extend the active regions as they do so
+     */
+    private void updateActiveRegions() {
+        if (activeRegions == null) {
+            return;
+        }
+
+        activeRegions.clear();
+
+        AtomStore store = map.getAtomStore();
+        for (int id = 0; id < store.size(); id++) {
+            if (store.isEnzyme(id)) {
+                activeRegions.mark(store.getX(id), store.getY(id), getCatalysisReach());
+            }
+        }
+    }
+
+    /**
+     * The furthest distance from an atom at which processing it may read or change the map
+     * Enzymes are searched for within ENZYME_RANGE of reactants, which lie within REACTION_RANGE of the moved atom
+     * Bond crossing checks reach a bond length plus the X-bond offsets beyond that
+     */
+    private static int getInteractionReach() {
+        return SimulatorConstants.ENZYME_RANGE + SimulatorConstants.REACTION_RANGE + 5;
+    }
+
+    /**
+     * @return The number of tiles along each side of the map in a parallel tick, or 0 if the map can not be split
+     */
+    private int getTilesPerSide() {
+        if (!(map instanceof SquareMap)) {
+            return 0;
+        }
+
+        //Tiles of the same phase are separated by a whole tile, which must be wider than the reach of both of them
+        int tiles = ((SquareMap) map).getSize() / (2 * getInteractionReach());
+
+        //Tiles on opposite edges of a torus touch, so the phases only alternate across the seam with an even count
+        if (map instanceof ToroidalMap && tiles % 2 != 0) {
+            tiles--;
+        }
+        return tiles;
+    }
+
+    /**
+     * Moves all atoms in tickOrder, processing spatial tiles concurrently
+     * <p>
+     * Tiles are split into four phases by the parity of their coordinates, so that two tiles in the same phase never touch.
+     * Each phase runs all of its tiles in parallel, and the phases run one after another in a random order.
+     * Within a tile, atoms are processed in their shuffled order
+     */
+    private void tickParallel(int ticks, int atomCount, int tiles, Random rand) {
+        int size = ((SquareMap) map).getSize();
+        int tileSize = (size + tiles - 1) / tiles;
+        int tileCount = tiles * tiles;
+
+        //Bucket atoms by the tile containing them, keeping the shuffled order (counting sort)
+        if (tileStarts.length != tileCount + 1) {
+            tileStarts = new int[tileCount + 1];
+        } else {
+            Arrays.fill(tileStarts, 0);
+        }
+        if (tileAtoms.length < atomCount) {
+            tileAtoms = new Atom[tickOrder.length];
+        }
+        if (atomTiles.length < atomCount) {
+            atomTiles = new int[tickOrder.length];
+        }
+
+        for (int k = 0; k < atomCount; k++) {
+            SquareLocation location = (SquareLocation) tickOrder[k].getLocation();
+            atomTiles[k] = (location.getY() / tileSize) * tiles + location.getX() / tileSize;
+            tileStarts[atomTiles[k] + 1]++;
+        }
+        for (int tile = 0; tile < tileCount; tile++) {
+            tileStarts[tile + 1] += tileStarts[tile];
+        }
+        int[] cursors = Arrays.copyOf(tileStarts, tileCount);
+        for (int k = 0; k < atomCount; k++) {
+            tileAtoms[cursors[atomTiles[k]]++] = tickOrder[k];
+        }
+
+        //Randomize the order of phases, so that no region consistently moves first
+        int[] phases = new int[]{0, 1, 2, 3};
+        for (int i = phases.length; i > 1; i--) {
+            int j = rand.nextInt(i);
+            int swap = phases[i - 1];
+            phases[i - 1] = phases[j];
+            phases[j] = swap;
+        }
+
+        ForkJoinPool pool = getPool();
+        for (int phase : phases) {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int tileY = phase / 2; tileY < tiles; tileY += 2) {
+                for (int tileX = phase % 2; tileX < tiles; tileX += 2) {
+                    int tile = tileY * tiles + tileX;
+                    if (tileStarts[tile] != tileStarts[tile + 1]) {
+                        tasks.add(new TileTask(ticks, tileStarts[tile], tileStarts[tile + 1], rand.nextLong()));
+                    }
                 }
             }
 
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted during a parallel tick", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Error during a parallel tick", e.getCause());
+                }
+            }
+        }
+    }
 
+    private ForkJoinPool getPool() {
+        if (pool == null || pool.getParallelism() != SimulatorConstants.PARALLELISM) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(SimulatorConstants.PARALLELISM);
+        }
+        return pool;
+    }
 
+    /**
+     * Processes the atoms of one tile in a parallel tick
+     * Each thread uses its own worker Simulator, so that the scratch buffers are never shared
+     */
+    private class TileTask implements Callable<Void> {
+        private final int ticks;
+        private final int start;
+        private final int end;
+        private final long seed;
+
+        TileTask(int ticks, int start, int end, long seed) {
+            this.ticks = ticks;
+            this.start = start;
+            this.end = end;
+            this.seed = seed;
         }
 
-        //Re-render after components have changed
-        map.render();
+        @Override
+        public Void call() {
+            Simulator worker = workers.get();
+            worker.random.setSeed(seed);
+            for (int i = start; i < end; i++) {
+                worker.tickAtom(tileAtoms[i], ticks, worker.random);
+            }
+            return null;
+        }
     }
 
     /**
      * After an atom moves, will expel it from the membrane if conditions are met
      */
     public void pinchMembrane(Atom atom) {
-        if (atom.type == EnumType.A && atom.state == 36) {
+        if (atom.getType() == EnumType.A && atom.getState() == 36) {
             //Check bonded atoms
-            if (atom.bonds.size() == 2) {
-                Atom atom1 = atom.bonds.get(0);
-                Atom atom2 = atom.bonds.get(1);
-                if (atom1.state == 36 && atom1.type == EnumType.A &&
-                        atom2.state == 36 && atom2.type == EnumType.A) {
+            Atom[] bonds = atom.getBonds();
+            if (bonds.length == 2) {
+                Atom atom1 = bonds[0];
+                Atom atom2 = bonds[1];
+                if (atom1.getState() == 36 && atom1.getType() == EnumType.A &&
+                        atom2.getState() == 36 && atom2.getType() == EnumType.A) {
                     //Check that atoms are adjacent
                     if (atom1.getLocation().distance(atom2.getLocation()) == 1) {
                         //Checkk that this membrane atom to be ejected is clumped
@@ -141,7 +511,7 @@ public class Simulator {
                                     atom.unbond(atom1);
 
                                     //Become food
-                                    atom.state = 0;
+                                    atom.setState(0);
                                 }
                             }
                     }
@@ -156,27 +526,21 @@ public class Simulator {
      */
     public void addToMembrane(Atom atom) {
 
-        if (atom.type == EnumType.A && atom.state == 0) {
-
-            //A 2D array containing pairs of opposing atoms
-            Atom[][] atomPairs = new Atom[][]{
-                    {map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(0, 1))), map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(0, -1)))},
-                    {map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(-1, 0))), map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(1, 0)))},
-                    {map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(-1, -1))), map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(1, 1)))},
-                    {map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(-1, 1))), map.getAtomAtLocation(atom.getLocation().add(new SquareLocation(1, -1)))}
-            };
-            for (Atom[] pair : atomPairs) {
-                Atom atom1 = pair[0];
-                Atom atom2 = pair[1];
+        if (atom.getType() == EnumType.A && atom.getState() == 0) {
+
+            //Pairs of opposing atoms
+            for (int[] pair : MEMBRANE_OFFSET_PAIRS) {
+                Atom atom1 = map.getAtomAtOffset(atom.getLocation(), PackedLocation.getX(pair[0]), PackedLocation.getY(pair[0]));
+                Atom atom2 = map.getAtomAtOffset(atom.getLocation(), PackedLocation.getX(pair[1]), PackedLocation.getY(pair[1]));
                 if (atom1 != null && atom2 != null) {
-                    if ((atom1.state == 37 || atom1.state == 36) && (atom2.state == 37 || atom2.state == 36) && atom1.type == EnumType.A && atom2.type == EnumType.A) {
+                    if ((atom1.getState() == 37 || atom1.getState() == 36) && (atom2.getState() == 37 || atom2.getState() == 36) && atom1.getType() == EnumType.A && atom2.getType() == EnumType.A) {
                         //Check that no atom in the membrane is bonded to something else
-                        if (atom1.bonds.size() == 2 && atom2.bonds.size() == 2) {
+                        if (atom1.getBondCount() == 2 && atom2.getBondCount() == 2) {
                             if (atom2.isBondedTo(atom1)) {
                                 atom1.unbond(atom2);
                                 atom1.bond(atom);
                                 atom2.bond(atom);
-                                atom.state = 36;
+                                atom.setState(36);
 
                             }
                         }
@@ -189,13 +553,13 @@ public class Simulator {
     /**
      * Checks if a movement would stretch bonds beyond capacity
      *
-     * @param atom        The atom to be moved
-     * @param newLocation The location to which the atom will be moved
+     * @param atom The atom to be moved
+     * @param move The packed offset by which the atom will be moved
      * @return True if a movement is invalid, false otherwise
      */
-    private boolean willStretchBonds(Atom atom, ILocation newLocation) {
-        for (Atom bondedAtom : atom.bonds) {
-            if (map.getDistance(newLocation, bondedAtom.getLocation()) > 2) {
+    private boolean willStretchBonds(Atom atom, int move) {
+        for (Atom bondedAtom : atom.getBonds()) {
+            if (PackedLocation.distance(map.getPackedOffset(atom.getLocation(), bondedAtom.getLocation()), move) > 2) {
                 return true;
             }
         }
@@ -203,26 +567,32 @@ public class Simulator {
     }
 
     /**
-     * n
      * Checks if a movement will cross a bond
+     * All positions are calculated as packed offsets from the current location of the atom
      *
-     * @param atom        The atom to be moved
-     * @param newLocation The location in which the atom will be moved
+     * @param atom The atom to be moved
+     * @param move The packed offset by which the atom will be moved
      * @return True if the movement is invalid
      */
-    private boolean willCrossBonds(Atom atom, ILocation newLocation) {
+    private boolean willCrossBonds(Atom atom, int move) {
+        ILocation location = atom.getLocation();
+
         //Checks if the new location will result in any crossed bonds
-        for (Atom bondedAtom : atom.bonds) {
-            if (doesBondCross(atom, newLocation, bondedAtom, bondedAtom.getLocation())) {
+        for (Atom bondedAtom : atom.getBonds()) {
+            if (bondCrosses(atom, location, move, bondedAtom, map.getPackedOffset(location, bondedAtom.getLocation()))) {
                 return true;
             }
         }
 
-        if (!atom.bonds.isEmpty()) {
-            for (Atom nearbyAtom : map.getAdjacentAtoms(atom.getLocation())) {
-                if (!nearbyAtom.isBondedTo(atom)) {
-                    for (Atom bondedAtom : nearbyAtom.bonds) {
-                        if (map.crossed(atom.getLocation(), newLocation, nearbyAtom.getLocation(), bondedAtom.getLocation(), false)) {
+        if (atom.getBondCount() != 0) {
+            MooreNeighborhood adjacent = MooreNeighborhood.ofRange(1);
+            for (int i = 0; i < adjacent.size(); i++) {
+                Atom nearbyAtom = map.getAtomAtOffset(location, adjacent.dx[i], adjacent.dy[i]);
+                if (nearbyAtom != null && !nearbyAtom.isBondedTo(atom)) {
+                    int nearbyPosition = PackedLocation.pack(adjacent.dx[i], adjacent.dy[i]);
+                    for (Atom bondedAtom : nearbyAtom.getBonds()) {
+                        int bondedPosition = PackedLocation.add(nearbyPosition, map.getPackedOffset(nearbyAtom.getLocation(), bondedAtom.getLocation()));
+                        if (map.crossed(PackedLocation.ORIGIN, move, nearbyPosition, bondedPosition, false)) {
                             return true;
                         }
                     }
@@ -246,54 +616,22 @@ public class Simulator {
      * The two locations may or may not map to the actual locations of the atom
      */
     public boolean doesBondCross(Atom atom1, ILocation loc1, Atom atom2, ILocation loc2) {
-        ArrayList<Atom> nearbyAtoms = getNearbyAtomsForCrossCheck(atom1, loc1);
-        nearbyAtoms.addAll(getNearbyAtomsForCrossCheck(atom2, loc2));
-
-        //Remove duplicates
-        nearbyAtoms = new ArrayList<>(new HashSet<>(nearbyAtoms));
-
-        //Remove original atoms
-        nearbyAtoms.remove(atom1);
-        nearbyAtoms.remove(atom2);
-
-
-        //Cycle through all atoms bonded to these
-        //This is inefficient by a factor of two
-        //But this shouldn't be a performance intensive step
-        for (Atom nearbyAtom : nearbyAtoms) {
-            for (Atom nearbyBondedAtom : nearbyAtom.bonds) {
-                if (nearbyBondedAtom != atom1 && nearbyBondedAtom != atom2 && map.crossed(loc1, loc2, nearbyAtom.getLocation(), nearbyBondedAtom.getLocation(), true)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return bondCrosses(atom1, loc1, PackedLocation.ORIGIN, atom2, map.getPackedOffset(loc1, loc2));
     }
 
     /**
-     * Returns a lsit of all Atoms which might cross with an atom if it were at a given location
+     * Version of doesBondCross on packed positions
+     *
+     * @param origin    The location from which all positions are measured
+     * @param position1 The packed offset of atom1 from origin
+     * @param position2 The packed offset of atom2 from origin
      */
-    private ArrayList<Atom> getNearbyAtomsForCrossCheck(Atom atom, ILocation loc) {
-        //We want to look at all atoms adjacent to one of the components
-        //Plus prevent X bonds
-        ArrayList<Atom> nearbyAtoms = map.getAdjacentAtoms(loc, 1);
-
-        //Prevent X-bonds
-        for (SquareLocation xLoc : new SquareLocation[]{new SquareLocation(0, -2), new SquareLocation(-2, 0), new SquareLocation(2, 0), new SquareLocation(0, 2)}) {
-            Atom xAtom = map.getAtomAtLocation(loc.add(xLoc));
-            if (xAtom != null) {
-                nearbyAtoms.add(xAtom);
-            }
-        }
-
-        nearbyAtoms.remove(atom);
-
-        return nearbyAtoms;
+    private boolean bondCrosses(Atom atom1, ILocation origin, int position1, Atom atom2, int position2) {
+        //Bonds of the two atoms themselves can not cross the new bond
+        return map.crossesAnyBond(origin, position1, position2, atom1, atom2);
     }
 
     public void flood(AbstractMap map) {
-        Random random = new Random();
         int centerX = random.nextInt(SimulatorConstants.MAP_SIZE);
         int centerY = random.nextInt(SimulatorConstants.MAP_SIZE);
 
@@ -301,7 +639,7 @@ public class Simulator {
             for (int y = centerY - SimulatorConstants.FLOOD_RANGE; y < centerY + SimulatorConstants.FLOOD_RANGE; y++) {
                 Atom atom = map.getAtomAtLocation(new SquareLocation(x, y));
                 if (atom != null) {
-                    atom.state = 0;
+                    atom.setState(0);
                     atom.unbondAll();
                     atom.setReactions(new ReactionData[10]);
                 }
@@ -318,8 +656,7 @@ public class Simulator {
         ArrayList<ILocation> cells = map.getAllLocations();
 
         //Pick the first 30% of the list, after shuffling
-        Collections.shuffle(cells);
-        Random r = new Random();
+        Collections.shuffle(cells, random);
 
         for (int i = 0; i < cells.size() * SimulatorConstants.FOOD_ABUNDANCE; i++) {
 
@@ -328,7 +665,7 @@ public class Simulator {
             if (map.getAtomAtLocation(loc) == null) {
 
                 //Pick a random state
-                EnumType state = foodWeights.get(r.nextInt(foodWeights.size()));
+                EnumType state = foodWeights.get(random.nextInt(foodWeights.size()));
                 Atom atom = new Atom(state, 0);
                 map.addAtom(loc, atom);
             }
@@ -346,22 +683,49 @@ public class Simulator {
      */
     public void reactAround(ILocation centralLocation) {
 
+        //No enzyme can reach any reaction around a quiescent location
+        //Active regions may cover more than the reach of enzymes, so the pairs checked below still ask map.isCatalyzed
+        if (activeRegions != null && !activeRegions.isActive(centralLocation)) {
+            return;
+        }
+
         Atom centralAtom = map.getAtomAtLocation(centralLocation);
         if (centralAtom != null) {
 
-            ArrayList<Atom> nearbyAtoms = map.getAdjacentAtoms(centralLocation, SimulatorConstants.REACTION_RANGE);
+            int range = SimulatorConstants.REACTION_RANGE;
+            MooreNeighborhood neighborhood = MooreNeighborhood.ofRange(range);
+            if (reactionNeighbors.length < neighborhood.size()) {
+                reactionNeighbors = new Atom[neighborhood.size()];
+                reactionCatalyzed = new boolean[neighborhood.size()];
+            }
 
-            for (Atom atom : nearbyAtoms) {
+            //Every reaction needs an enzyme within ENZYME_RANGE of one of the two atoms or the central atom
+            boolean centralCatalyzed = map.isCatalyzed(centralLocation);
 
-                //This allows two atoms to react when not surrounded by any other atoms
-                if (map.getAdjacentAtoms(centralLocation, SimulatorConstants.REACTION_RANGE).isEmpty()) {
-                    ReactionManager.react(atom, centralAtom, null, map, this);
-                } else {
-                    for (Atom atom2 : nearbyAtoms) {
-                        if (atom != atom2) {
-                            if (atom2.getLocation().distance(atom.getLocation()) <= 2) {
-                                ReactionManager.react(atom, atom2, centralAtom, map, this);
-                            }
+            //Collect nearby atoms once, indexed by their cell in the neighborhood (null if empty)
+            for (int i = 0; i < neighborhood.size(); i++) {
+                Atom neighbor = map.getAtomAtOffset(centralLocation, neighborhood.dx[i], neighborhood.dy[i]);
+                reactionNeighbors[i] = neighbor;
+                reactionCatalyzed[i] = centralCatalyzed || (neighbor != null && map.isCatalyzed(neighbor.getLocation()));
+            }
+
+            //Every unordered pair of atoms close enough to bond is checked once
+            //Reactions are order-independent, as ReactionManager.react considers the states of both atoms
+            for (int k = 0; k < neighborhood.pairFirst.length; k++) {
+                Atom atom = reactionNeighbors[neighborhood.pairFirst[k]];
+                Atom atom2 = reactionNeighbors[neighborhood.pairSecond[k]];
+
+                //No enzyme reaches any of the three atoms
+                if (!reactionCatalyzed[neighborhood.pairFirst[k]] && !reactionCatalyzed[neighborhood.pairSecond[k]]) {
+                    continue;
+                }
+
+                //On a small torus, two cells may hold the same atom
+                if (atom != null && atom2 != null && atom != atom2) {
+                    if (ReactionManager.react(atom, atom2, centralAtom, map, this)) {
+                        //A reaction may have created an enzyme next to the central location
+                        if (activeRegions != null) {
+                            activeRegions.mark(centralLocation, getCatalysisReach() + range);
                         }
                     }
                 }
@@ -54,7 +54,8 @@ public class SquareLocation implements ILocation {
 
     @Override
     public int hashCode() {
-        return 1023 * getX() + getY();
+        //Unique for all coordinates which fit in a packed location
+        return PackedLocation.pack(x, y);
     }
 
     @Override
@@ -17,7 +17,6 @@ import adlytempleton.gui.SquareMapFrame;
 import adlytempleton.reaction.ReactionData;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by ATempleton on 11/7/2015.
@@ -30,17 +29,44 @@ public class SquareMap extends AbstractMap {
 
     private transient SquareMapFrame renderer;
 
-    //The main HashMap that stores locations of all atoms.
-    //If an atom is not present at an location, the location should not be a key in the hashmap.
-    private ConcurrentHashMap<SquareLocation, Atom> atomMap = new ConcurrentHashMap<>();
+    //The main grid that stores locations of all atoms, indexed by cellIndex(x, y)
+    //If an atom is not present at an location, the cell is null
+    private Atom[] grid;
+
+    //Every bond on the map, indexed by the cells it covers
+    private transient BondIndex bondIndex;
+
+    //Every membrane on the map, which may block the reach of enzymes
+    private transient BondIndex membraneIndex;
+
+    //The regions separated by those membranes
+    private transient CompartmentIndex compartments;
 
     public SquareMap(int size) {
         this(size, true);
     }
 
     public SquareMap(int size, boolean showGUI) {
+        this(size, showGUI, true);
+    }
+
+    /**
+     * @param denseGrid If false, no grid array is allocated
+     *                  The subclass must then override getCell and setCell with its own storage
+     */
+    protected SquareMap(int size, boolean showGUI, boolean denseGrid) {
         super();
         this.size = size;
+        if (denseGrid) {
+            this.grid = new Atom[size * size];
+        }
+
+        bondIndex = new BondIndex(this, false);
+        membraneIndex = new BondIndex(this, true);
+        atomStore.addBondIndex(bondIndex);
+        atomStore.addBondIndex(membraneIndex);
+        compartments = new CompartmentIndex(this, membraneIndex);
+        enzymeIndex = new EnzymeIndex(this);
 
         if (showGUI) {
             renderer = new SquareMapFrame(this);
@@ -51,21 +77,68 @@ public class SquareMap extends AbstractMap {
     public void move(Atom atom, ILocation newLocation) {
         assert newLocation instanceof SquareLocation;
 
+        SquareLocation sqLoc = (SquareLocation) newLocation;
 
-        if (!atomMap.containsKey(newLocation)) {
+        if (inBounds(sqLoc.getX(), sqLoc.getY()) && getCell(sqLoc.getX(), sqLoc.getY()) == null) {
             //Remove the atom from the current map
-            atomMap.remove(atom.getLocation());
-            removeFromEnzymeMap(atom);
+            SquareLocation oldLoc = (SquareLocation) atom.getLocation();
+            setCell(oldLoc.getX(), oldLoc.getY(), null);
 
             //Update the location in the Atom object
+            //The enzyme map links to atoms, not locations, so only its spatial index needs to be updated
             atom.setLocation(newLocation);
+            if (atomStore.isCatalyst(atom.getId())) {
+                //Counts near the atom belong to the tile of the atom during a parallel tick, so the read lock is enough
+                //The shared bucket lists are only changed under the write lock
+                boolean rebucket;
+                enzymeLock.readLock().lock();
+                try {
+                    rebucket = enzymeIndex.move(atom);
+                } finally {
+                    enzymeLock.readLock().unlock();
+                }
+
+                if (rebucket) {
+                    enzymeLock.writeLock().lock();
+                    try {
+                        enzymeIndex.rebucket(atom);
+                    } finally {
+                        enzymeLock.writeLock().unlock();
+                    }
+                }
+            }
 
             //Insert the atom in it's new location
-            atomMap.put((SquareLocation) newLocation, atom);
-            addToEnzymeMap(atom);
+            setCell(sqLoc.getX(), sqLoc.getY(), atom);
         }
     }
 
+    /**
+     * Converts grid coordinates to an index in the grid array
+     * Coordinates must lie on the grid
+     */
+    protected int cellIndex(int x, int y) {
+        return y * size + x;
+    }
+
+    /**
+     * @return True if the coordinates lie within the bounds of the grid array
+     */
+    protected boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < size && y < size;
+    }
+
+    /**
+     * @return The atom stored at the given on-grid coordinates, or null if the cell is empty
+     */
+    protected Atom getCell(int x, int y) {
+        return grid[cellIndex(x, y)];
+    }
+
+    protected void setCell(int x, int y, Atom atom) {
+        grid[cellIndex(x, y)] = atom;
+    }
+
     @Override
     public Class<? extends ILocation> getLocationType() {
         return SquareLocation.class;
@@ -75,7 +148,56 @@ public class SquareMap extends AbstractMap {
     public Atom getAtomAtLocation(ILocation location) {
         assert location instanceof SquareLocation;
 
-        return atomMap.get(location);
+        //Locations off the grid never contain atoms
+        SquareLocation sqLoc = (SquareLocation) location;
+        return getAtomAt(sqLoc.getX(), sqLoc.getY());
+    }
+
+    /**
+     * @return The atom at the given coordinates, or null if the cell is empty or off the grid
+     */
+    public Atom getAtomAt(int x, int y) {
+        if (!inBounds(x, y)) {
+            return null;
+        }
+        return getCell(x, y);
+    }
+
+    @Override
+    public Atom getAtomAtOffset(ILocation location, int dx, int dy) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        return getAtomAt(sqLoc.getX() + dx, sqLoc.getY() + dy);
+    }
+
+    @Override
+    public boolean isOffsetOnGrid(ILocation location, int dx, int dy) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        return inBounds(sqLoc.getX() + dx, sqLoc.getY() + dy);
+    }
+
+    @Override
+    public int getEmptyNeighborMask(ILocation location) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        int x = sqLoc.getX();
+        int y = sqLoc.getY();
+
+        //Cells on the edge of the grid, and grids stored elsewhere, need the checked lookups
+        if (grid == null || x < 1 || y < 1 || x > size - 2 || y > size - 2) {
+            return super.getEmptyNeighborMask(location);
+        }
+
+        //Offsets in the order of MooreNeighborhood.ofRange(1)
+        int center = cellIndex(x, y);
+        int mask = 0;
+        if (grid[center - size - 1] == null) mask |= 1;
+        if (grid[center - 1] == null) mask |= 1 << 1;
+        if (grid[center + size - 1] == null) mask |= 1 << 2;
+        if (grid[center - size] == null) mask |= 1 << 3;
+        if (grid[center + size] == null) mask |= 1 << 4;
+        if (grid[center - size + 1] == null) mask |= 1 << 5;
+        if (grid[center + 1] == null) mask |= 1 << 6;
+        if (grid[center + size + 1] == null) mask |= 1 << 7;
+        return mask;
     }
 
     @Override
@@ -105,20 +227,48 @@ public class SquareMap extends AbstractMap {
     public boolean crossed(ILocation loc11, ILocation loc12, ILocation loc21, ILocation loc22, boolean strict) {
 
         //Convert ILocations
-        SquareLocation sq11 = (SquareLocation) loc11;
-        SquareLocation sq12 = (SquareLocation) loc12;
-        SquareLocation sq21 = (SquareLocation) loc21;
-        SquareLocation sq22 = (SquareLocation) loc22;
+        return crossed(PackedLocation.pack((SquareLocation) loc11), PackedLocation.pack((SquareLocation) loc12),
+                PackedLocation.pack((SquareLocation) loc21), PackedLocation.pack((SquareLocation) loc22), strict);
+    }
+
+    @Override
+    public boolean crossed(int loc11, int loc12, int loc21, int loc22, boolean strict) {
+        //Bonds are never longer than two units, so nearly every check can be answered by the table
+        if (CrossingTable.covers(loc11, loc12, loc21, loc22)) {
+            return CrossingTable.crossed(loc11, loc12, loc21, loc22, strict);
+        }
+        return crossedGeometry(loc11, loc12, loc21, loc22, strict);
+    }
+
+    @Override
+    public boolean crossesAnyBond(ILocation origin, int position1, int position2, Atom exclude1, Atom exclude2) {
+        return bondIndex.crosses(PackedLocation.pack((SquareLocation) origin), position1, position2, exclude1, exclude2);
+    }
+
+    /**
+     * Version of crossed which computes the intersection of the two lines directly
+     * Used for long lines, and to build CrossingTable
+     */
+    static boolean crossedGeometry(int loc11, int loc12, int loc21, int loc22, boolean strict) {
+
+        int x11 = PackedLocation.getX(loc11);
+        int y11 = PackedLocation.getY(loc11);
+        int x12 = PackedLocation.getX(loc12);
+        int y12 = PackedLocation.getY(loc12);
+        int x21 = PackedLocation.getX(loc21);
+        int y21 = PackedLocation.getY(loc21);
+        int x22 = PackedLocation.getX(loc22);
+        int y22 = PackedLocation.getY(loc22);
 
         //Check if lines are parallel
         //The ternary operator is user as a zero check
-        double slope1 = sq11.getX() == sq12.getX() ? Double.MAX_VALUE : (sq11.getY() - sq12.getY()) / (double) (sq11.getX() - sq12.getX());
-        double slope2 = sq21.getX() == sq22.getX() ? Double.MAX_VALUE : (sq21.getY() - sq22.getY()) / (double) (sq21.getX() - sq22.getX());
+        double slope1 = x11 == x12 ? Double.MAX_VALUE : (y11 - y12) / (double) (x11 - x12);
+        double slope2 = x21 == x22 ? Double.MAX_VALUE : (y21 - y22) / (double) (x21 - x22);
 
         //Compute y-intersection
         //The results must be discarded for vertical or horizontal lines
-        double b1 = sq11.getY() - sq11.getX() * slope1;
-        double b2 = sq21.getY() - sq21.getX() * slope2;
+        double b1 = y11 - x11 * slope1;
+        double b2 = y21 - x21 * slope2;
 
         /**
          * Derived formula:
@@ -140,8 +290,8 @@ public class SquareMap extends AbstractMap {
             //Note that checking one dimension is not sufficient for vertical/horizontal lines
 
             //If the lines are colinear. This is the y-intercept, or x-intercept for vertical lines
-            boolean sameAxis = slope1 == Double.MAX_VALUE ? sq11.getX() == sq21.getX() : b1 == b2;
-            return sameAxis && (numbersInterwoven(sq11.getY(), sq12.getY(), sq21.getY(), sq22.getY()) && numbersInterwoven(sq11.getX(), sq12.getX(), sq21.getX(), sq22.getX()));
+            boolean sameAxis = slope1 == Double.MAX_VALUE ? x11 == x21 : b1 == b2;
+            return sameAxis && (numbersInterwoven(y11, y12, y21, y22) && numbersInterwoven(x11, x12, x21, x22));
 
         }
 
@@ -152,16 +302,16 @@ public class SquareMap extends AbstractMap {
         //If we have one infinite slope, x is on the verticle line
         //Note that both values can not be the same (or the function would have returned above
         if (slope1 == Double.MAX_VALUE) {
-            x = sq11.getX();
+            x = x11;
             y = x * slope2 + b2;
         } else if (slope2 == Double.MAX_VALUE) {
-            x = sq21.getX();
+            x = x21;
             y = x * slope1 + b1;
         } else if (slope1 == 0) {
-            y = sq11.getY();
+            y = y11;
             x = (y - b2) / slope2;
         } else if (slope2 == 0) {
-            y = sq21.getY();
+            y = y21;
             x = (y - b1) / slope1;
         } else {
             x = (b2 - b1) / (slope1 - slope2);
@@ -174,17 +324,17 @@ public class SquareMap extends AbstractMap {
 
         //Now we have the intersection point of the two lines
         //But we must determine if this intersection point is contained in both segments
-        boolean withinLine1 = numbersInterwoven(sq11.getX(), sq12.getX(), x) && numbersInterwoven(sq11.getY(), sq12.getY(), y);
-        boolean withinLine2 = numbersInterwoven(sq21.getX(), sq22.getX(), x) && numbersInterwoven(sq21.getY(), sq22.getY(), y);
+        boolean withinLine1 = numbersInterwoven(x11, x12, x) && numbersInterwoven(y11, y12, y);
+        boolean withinLine2 = numbersInterwoven(x21, x22, x) && numbersInterwoven(y21, y22, y);
 
         if (strict) {
             //If the intersection is not an integer point, it can not be equal to any of the endpoints
             if (x == Math.floor(x) && y == Math.floor(y)) {
-                SquareLocation intersection = new SquareLocation((int) x, (int) y);
-                if ((intersection.equals(sq11) || intersection.equals(sq12)) && withinLine2) {
+                int intersection = PackedLocation.pack((int) x, (int) y);
+                if ((intersection == loc11 || intersection == loc12) && withinLine2) {
                     return true;
                 }
-                if ((intersection.equals(sq21) || intersection.equals(sq22)) && withinLine1) {
+                if ((intersection == loc21 || intersection == loc22) && withinLine1) {
                     return true;
                 }
             }
@@ -203,70 +353,132 @@ public class SquareMap extends AbstractMap {
         assert loc1 instanceof SquareLocation;
         assert loc2 instanceof SquareLocation;
 
+        int[] cells = getCrossedZone(PackedLocation.pack((SquareLocation) loc1), PackedLocation.pack((SquareLocation) loc2));
+
         HashSet<ILocation> result = new HashSet<>();
+        for (int cell : cells) {
+            result.add(PackedLocation.toLocation(cell));
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean membraneCrosses(ILocation loc1, ILocation loc2, Atom exclude1, Atom exclude2) {
+        //Measure from loc2, so that lines across the edge of a toroidal map are not split
+        return membraneIndex.crossesAlong(PackedLocation.pack((SquareLocation) loc2), getPackedOffset(loc2, loc1), PackedLocation.ORIGIN, exclude1, exclude2);
+    }
 
-        SquareLocation sq1 = (SquareLocation) loc1;
-        SquareLocation sq2 = (SquareLocation) loc2;
+    @Override
+    public boolean sameCompartment(ILocation loc1, ILocation loc2) {
+        SquareLocation sqLoc1 = (SquareLocation) loc1;
+        SquareLocation sqLoc2 = (SquareLocation) loc2;
+        return compartments.sameCompartment(sqLoc1.getX(), sqLoc1.getY(), sqLoc2.getX(), sqLoc2.getY());
+    }
 
-        //Ensure that sq1 is left of sq2
-        if (sq1.getX() > sq2.getX()) {
-            SquareLocation t = sq1;
-            sq1 = sq2;
-            sq2 = t;
+    public CompartmentIndex getCompartments() {
+        return compartments;
+    }
+
+    /**
+     * @return The index of membrane bonds, from which the compartments are labeled
+     */
+    BondIndex getMembraneIndex() {
+        return membraneIndex;
+    }
+
+    /**
+     * Version of getCrossedZone on packed locations
+     *
+     * @return The packed locations in the zone, without duplicates
+     */
+    protected int[] getCrossedZone(int loc1, int loc2) {
+
+        //Ensure that loc1 is left of loc2
+        if (PackedLocation.getX(loc1) > PackedLocation.getX(loc2)) {
+            int t = loc1;
+            loc1 = loc2;
+            loc2 = t;
         }
 
+        int x1 = PackedLocation.getX(loc1);
+        int y1 = PackedLocation.getY(loc1);
+        int x2 = PackedLocation.getX(loc2);
+        int y2 = PackedLocation.getY(loc2);
 
-        double slope = (sq1.getX() == sq2.getX()) ? Double.MAX_VALUE : (sq1.getY() - sq2.getY()) / ((double) (sq1.getX() - sq2.getX()));
-        double b = sq1.getY() - slope * sq1.getX();
+        int minY = Math.min(y1, y2);
+        int maxY = Math.max(y1, y2);
 
-        //A vertical line
-        if (slope == Double.MAX_VALUE) {
-            int minY = Math.min(sq1.getY(), sq2.getY()) - 2;
-            int maxY = Math.max(sq1.getY(), sq2.getY()) + 2;
+        //Upper bound on the number of cells added by the loops below
+        int[] result = new int[3 * (maxY - minY + 5) + 4 * (x2 - x1 + 5) + 4 * (maxY - minY + 5)];
+        int count = 0;
+
+        //Rise and run of the line. run is never negative, as loc1 is left of loc2
+        int rise = y2 - y1;
+        int run = x2 - x1;
 
-            for (int y = minY; y <= maxY; y++) {
-                for (int x = sq1.getX(); x <= sq1.getX() + 2; x++) {
-                    result.add(new SquareLocation(x, y));
+        //A vertical line
+        if (run == 0) {
+            for (int y = minY - 2; y <= maxY + 2; y++) {
+                for (int x = x1; x <= x1 + 2; x++) {
+                    result[count++] = PackedLocation.pack(x, y);
                 }
 
             }
             //A horizontal line
-        } else if (slope == 0) {
+        } else if (rise == 0) {
             //The order along the x-axis was guaranteed
-            int minX = sq1.getX() - 2;
-            int maxX = sq2.getX() + 2;
-            for (int y = sq1.getY(); y <= sq1.getY() + 2; y++) {
-                for (int x = minX; x <= maxX; x++) {
-                    result.add(new SquareLocation(x, y));
+            for (int y = y1; y <= y1 + 2; y++) {
+                for (int x = x1 - 2; x <= x2 + 2; x++) {
+                    result[count++] = PackedLocation.pack(x, y);
                 }
             }
         } else {
 
             //At extreme slopes, either method leads to gaps. Therefore, we double up the methods
-            //Removing duplicates implicitly with the HashSet
-            for (int x = sq1.getX() - 2; x <= sq2.getX() + 2; x++) {
+            //Duplicates are removed below
+            //Points on the line are rounded down with integer division, so the zone does not depend on where the line lies on the map
+            for (int x = x1 - 2; x <= x2 + 2; x++) {
                 //Find the initial line
-                int y = (int) Math.floor(b + x * slope);
+                int y = y1 + floorDiv((x - x1) * rise, run);
                 //And shift two grid squares along that line
                 for (int yi = y; yi <= y + 3; yi++) {
-                    result.add(new SquareLocation(x, yi));
+                    result[count++] = PackedLocation.pack(x, yi);
                 }
             }
-            int minY = Math.min(sq1.getY(), sq2.getY()) - 2;
-            int maxY = Math.max(sq1.getY(), sq2.getY()) + 2;
 
-            for (int y = minY; y <= maxY; y++) {
+            for (int y = minY - 2; y <= maxY + 2; y++) {
                 //Find the initial line
-                int x = (int) Math.floor((y - b) / slope);
+                int x = x1 + floorDiv((y - y1) * run, rise);
                 //And shift two grid squares along that line
                 for (int xi = x; xi <= x + 3; xi++) {
-                    result.add(new SquareLocation(xi, y));
+                    result[count++] = PackedLocation.pack(xi, y);
                 }
 
             }
         }
 
-        return result;
+        //Remove duplicates
+        Arrays.sort(result, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || result[i] != result[unique - 1]) {
+                result[unique++] = result[i];
+            }
+        }
+
+        return Arrays.copyOf(result, unique);
+    }
+
+    /**
+     * Division which rounds towards negative infinity, like Math.floor
+     */
+    static int floorDiv(int dividend, int divisor) {
+        int quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
     }
 
     /**
@@ -277,7 +489,7 @@ public class SquareMap extends AbstractMap {
      * @param b1 First coord of second atom
      * @param b2 Second coord of second atom
      */
-    protected boolean numbersInterwoven(int a1, int a2, int b1, int b2) {
+    protected static boolean numbersInterwoven(int a1, int a2, int b1, int b2) {
 
         //Ensure that all the coords are in the proper order
         //ie. That a1 <= a2, and that b1 <= b2
@@ -308,7 +520,7 @@ public class SquareMap extends AbstractMap {
      * @param a2 Second coord of first atom
      * @param b  Third point
      */
-    protected boolean numbersInterwoven(int a1, int a2, double b) {
+    protected static boolean numbersInterwoven(int a1, int a2, double b) {
 
         //Ensure that all the coords are in the proper order
         //ie. That a1 <= a2, and that b1 <= b2
@@ -340,9 +552,14 @@ public class SquareMap extends AbstractMap {
         return Math.max(diffX, diffY);
     }
 
+    @Override
+    public int getPackedOffset(ILocation from, ILocation to) {
+        return PackedLocation.subtract(PackedLocation.pack((SquareLocation) to), PackedLocation.pack((SquareLocation) from));
+    }
+
     @Override
     public List<Atom> getAllAtoms() {
-        return new ArrayList<>(atomMap.values());
+        return atomStore.getAtoms();
     }
 
     @Override
@@ -358,47 +575,57 @@ public class SquareMap extends AbstractMap {
         assert endLoc instanceof SquareLocation;
         assert startLoc instanceof SquareLocation;
 
-        SquareLocation end = (SquareLocation) endLoc;
-        SquareLocation start = (SquareLocation) startLoc;
+        int end = PackedLocation.pack((SquareLocation) endLoc);
+        int delta = getPackedOffset(startLoc, endLoc);
+
+        ArrayList<ILocation> result = new ArrayList<>();
+        for (int cell : newlyInRange(end, PackedLocation.getX(delta), PackedLocation.getY(delta), range)) {
+            //Check to make sure that all elements are contained in the grid
+            if (inBounds(PackedLocation.getX(cell), PackedLocation.getY(cell))) {
+                result.add(PackedLocation.toLocation(cell));
+            }
+        }
+
+        return result;
+    }
 
-        int deltaX = end.getX() - start.getX();
-        int deltaY = end.getY() - start.getY();
+    /**
+     * Version of newlyInRange on packed locations, which does not check whether cells lie on the grid
+     *
+     * @param end    The packed location after the movement
+     * @param deltaX The x component of the movement (-1, 0 or 1)
+     * @param deltaY The y component of the movement (-1, 0 or 1)
+     */
+    protected int[] newlyInRange(int end, int deltaX, int deltaY, int range) {
+        int endX = PackedLocation.getX(end);
+        int endY = PackedLocation.getY(end);
 
-        LinkedList<ILocation> result = new LinkedList<>();
+        int[] result = new int[2 * (2 * range + 1)];
+        int count = 0;
 
         //We want a line of length 2*range + 1
         //This line is the edge of all cells contained within the range
         //If we shift in multiple dimensions, we simply take the union
         if (deltaX != 0) {
             //deltaX is used as the sign
-            int x = end.getX() + range * deltaX;
-            for (int y = end.getY() - range; y <= end.getY() + range; y++) {
-                result.add(new SquareLocation(x, y));
+            int x = endX + range * deltaX;
+            for (int y = endY - range; y <= endY + range; y++) {
+                result[count++] = PackedLocation.pack(x, y);
             }
         }
 
         //Same calculations as above
         if (deltaY != 0) {
-            int y = end.getY() + range * deltaY;
-            for (int x = end.getX() - range; x <= end.getX() + range; x++) {
-                result.add(new SquareLocation(x, y));
-            }
-        }
-
-        //Remove the overlap
-        if (deltaX != 0 && deltaY != 0) {
-            result.remove(new SquareLocation(end.getX() + deltaX * range, end.getY() + deltaY * range));
-        }
-
-        //Check to make sure that all elements are contained in the list
-        Iterator iter = result.iterator();
-        while (iter.hasNext()) {
-            if (!isOnGrid((ILocation) iter.next())) {
-                iter.remove();
+            int y = endY + range * deltaY;
+            for (int x = endX - range; x <= endX + range; x++) {
+                //Skip the corner shared with the line above
+                if (deltaX == 0 || x != endX + range * deltaX) {
+                    result[count++] = PackedLocation.pack(x, y);
+                }
             }
         }
 
-        return result;
+        return Arrays.copyOf(result, count);
     }
 
     @Override
@@ -413,6 +640,33 @@ public class SquareMap extends AbstractMap {
         return result;
     }
 
+    @Override
+    public void getNearbyEnzymes(ReactionData rxn, ILocation loc1, ILocation loc2, int range, List<Atom> result) {
+        enzymeLock.readLock().lock();
+        try {
+            enzymeIndex.collect(rxn, (SquareLocation) loc1, getPackedOffset(loc1, loc2), range, result);
+        } finally {
+            enzymeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isCatalyzed(ILocation location) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        return enzymeIndex.getField().isCovered(sqLoc.getX(), sqLoc.getY());
+    }
+
+    @Override
+    public boolean isCatalyzed(ReactionData rxn, ILocation location) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        enzymeLock.readLock().lock();
+        try {
+            return enzymeIndex.getField().isCovered(rxn, sqLoc.getX(), sqLoc.getY());
+        } finally {
+            enzymeLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void updateEnzymes(Atom atom, ReactionData[] newReaction) {
         //First, take it out of all current enzyme mappings
@@ -431,9 +685,13 @@ public class SquareMap extends AbstractMap {
 
         assert location instanceof SquareLocation;
 
-        if (!atomMap.containsKey(location)) {
+        SquareLocation sqLoc = (SquareLocation) location;
+
+        if (inBounds(sqLoc.getX(), sqLoc.getY()) && getCell(sqLoc.getX(), sqLoc.getY()) == null) {
             atom.setLocation(location);
-            atomMap.put((SquareLocation) location, atom);
+            //Register the atom first, so that its id is available to the grid
+            atomStore.add(atom);
+            setCell(sqLoc.getX(), sqLoc.getY(), atom);
 
             //Add to enzyme map
             if (atom.isEnzyme()) {
@@ -445,6 +703,30 @@ public class SquareMap extends AbstractMap {
         }
     }
 
+    @Override
+    public void removeAtom(Atom atom) {
+        SquareLocation sqLoc = (SquareLocation) atom.getLocation();
+
+        if (atom.getId() != -1 && getCell(sqLoc.getX(), sqLoc.getY()) == atom) {
+            setCell(sqLoc.getX(), sqLoc.getY(), null);
+            removeFromEnzymeMap(atom);
+
+            //Partners would otherwise keep a bond to an atom which is no longer on the map
+            //getBonds returns a snapshot, so unbonding while iterating is safe
+            for (Atom partner : atom.getBonds()) {
+                atom.unbond(partner);
+            }
+
+            Atom moved = atomStore.remove(atom);
+
+            //Grids which store ids must be told about the atom which took over the freed id
+            if (moved != null) {
+                SquareLocation movedLoc = (SquareLocation) moved.getLocation();
+                setCell(movedLoc.getX(), movedLoc.getY(), moved);
+            }
+        }
+    }
+
     @Override
     public void render() {
         //Null if there is no gui
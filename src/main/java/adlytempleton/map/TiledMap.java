@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.atom.Atom;
+
+/**
+ * A bounded square map for very large, mostly empty worlds
+ * <p>
+ * The grid is split into TILE_SIZE x TILE_SIZE tiles. A tile is only allocated once an atom is placed in it,
+ * so empty regions cost one null reference per tile instead of one per cell.
+ * Cells within a tile are stored in Morton (Z-order), so a Moore neighborhood usually falls within a few cache lines
+ * <p>
+ * Apart from storage, this behaves exactly like SquareMap
+ */
+public class TiledMap extends SquareMap {
+
+    public static final int TILE_BITS = 5;
+    public static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    //Spreads the bits of a coordinate within a tile, so that x and y can be interleaved
+    private static final int[] MORTON_SPREAD = new int[TILE_SIZE];
+
+    static {
+        for (int i = 0; i < TILE_SIZE; i++) {
+            int spread = 0;
+            for (int bit = 0; bit < TILE_BITS; bit++) {
+                spread |= ((i >> bit) & 1) << (2 * bit);
+            }
+            MORTON_SPREAD[i] = spread;
+        }
+    }
+
+    //Number of tiles along each side of the map
+    private final int tilesPerSide;
+
+    //Tiles indexed by tileY * tilesPerSide + tileX. Null until a tile holds an atom
+    private final Atom[][] tiles;
+
+    public TiledMap(int size, boolean showGUI) {
+        super(size, showGUI, false);
+
+        tilesPerSide = (size + TILE_SIZE - 1) >> TILE_BITS;
+        tiles = new Atom[tilesPerSide * tilesPerSide][];
+    }
+
+    private int tileIndex(int x, int y) {
+        return (y >> TILE_BITS) * tilesPerSide + (x >> TILE_BITS);
+    }
+
+    /**
+     * @return The index of a cell within its tile, in Morton order
+     */
+    private static int mortonIndex(int x, int y) {
+        return MORTON_SPREAD[x & TILE_MASK] | (MORTON_SPREAD[y & TILE_MASK] << 1);
+    }
+
+    @Override
+    protected Atom getCell(int x, int y) {
+        Atom[] tile = tiles[tileIndex(x, y)];
+        return tile == null ? null : tile[mortonIndex(x, y)];
+    }
+
+    @Override
+    protected void setCell(int x, int y, Atom atom) {
+        int index = tileIndex(x, y);
+        Atom[] tile = tiles[index];
+
+        if (tile == null) {
+            //Clearing a cell never requires a new tile
+            if (atom == null) {
+                return;
+            }
+            tile = new Atom[TILE_SIZE * TILE_SIZE];
+            tiles[index] = tile;
+        }
+
+        tile[mortonIndex(x, y)] = atom;
+    }
+
+    public int getTilesPerSide() {
+        return tilesPerSide;
+    }
+
+    /**
+     * @return True if the tile at the given tile coordinates has been allocated
+     * Atoms can only be present in allocated tiles
+     */
+    public boolean isTileAllocated(int tileX, int tileY) {
+        return tiles[tileY * tilesPerSide + tileX] != null;
+    }
+
+    public int getAllocatedTileCount() {
+        int count = 0;
+        for (Atom[] tile : tiles) {
+            if (tile != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
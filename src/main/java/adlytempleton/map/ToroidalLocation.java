@@ -24,7 +24,7 @@ public class ToroidalLocation extends SquareLocation {
     }
 
     public ToroidalLocation(int x, int y, int mapSize) {
-        super((x + mapSize) % mapSize, (y + mapSize) % mapSize);
+        super(wrap(x, mapSize), wrap(y, mapSize));
         this.mapSize = mapSize;
     }
 
@@ -59,22 +59,25 @@ public class ToroidalLocation extends SquareLocation {
      * Returns the equivalent representation of these toroidal coordinates which is closest to the given ToroidalLocation
      */
     public SquareLocation compareTo(ToroidalLocation other) {
-        int transformedX = getX();
-        int transformedY = getY();
+        int transformedX = other.getX() + shortestOffset(getX() - other.getX(), mapSize);
+        int transformedY = other.getY() + shortestOffset(getY() - other.getY(), mapSize);
 
-        int border = mapSize / 2;
-        if (other.getX() < border && getX() > border) {
-            transformedX = getX() - mapSize;
-        } else if (other.getX() > border & getX() < border) {
-            transformedX = getX() + mapSize;
-        }
+        return new SquareLocation(transformedX, transformedY);
+    }
 
-        if (other.getY() < border && getY() > border) {
-            transformedY = getY() - mapSize;
-        } else if (other.getY() > border && getX() < border) {
-            transformedY = getY() + mapSize;
-        }
+    /**
+     * Wraps a coordinate onto the torus
+     * Unlike %, this also handles negative coordinates
+     */
+    public static int wrap(int coordinate, int mapSize) {
+        return ((coordinate % mapSize) + mapSize) % mapSize;
+    }
 
-        return new SquareLocation(transformedX, transformedY);
+    /**
+     * Converts an offset along one axis into the equivalent offset of smallest magnitude on the torus
+     */
+    public static int shortestOffset(int delta, int mapSize) {
+        delta = wrap(delta, mapSize);
+        return delta > mapSize / 2 ? delta - mapSize : delta;
     }
 }
@@ -20,15 +20,74 @@ import java.util.*;
  * Created by ATempleton on 1/12/2016.
  */
 public class ToroidalMap extends SquareMap {
+
+    //Maps a coordinate c in [-size, 2 * size) to its wrapped value, at index c + size
+    //Every neighborhood, crossing and reaction query stays well inside this margin, so wrapping is a single array load
+    private final int[] wrapTable;
+
     public ToroidalMap(int size, boolean showGUI) {
         super(size, showGUI);
+        atomStore.setToroidalSize(size);
+
+        wrapTable = new int[3 * size];
+        for (int i = 0; i < wrapTable.length; i++) {
+            wrapTable[i] = i % size;
+        }
+    }
+
+    /**
+     * Wraps a coordinate onto the torus, including negative coordinates
+     */
+    private int wrap(int coordinate) {
+        int index = coordinate + getSize();
+        if (index >= 0 && index < wrapTable.length) {
+            return wrapTable[index];
+        }
+        //Coordinates far outside of the map are rare enough to fall back on arithmetic
+        return ToroidalLocation.wrap(coordinate, getSize());
     }
 
     @Override
     public Atom getAtomAtLocation(ILocation location) {
         SquareLocation sqloc = (SquareLocation) location;
-        SquareLocation transferedLoc = new SquareLocation(sqloc.getX() % getSize(), sqloc.getY() % getSize());
-        return super.getAtomAtLocation(transferedLoc);
+        return getCell(wrap(sqloc.getX()), wrap(sqloc.getY()));
+    }
+
+    @Override
+    public Atom getAtomAt(int x, int y) {
+        return getCell(wrap(x), wrap(y));
+    }
+
+    @Override
+    public Atom getAtomAtOffset(ILocation location, int dx, int dy) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        return getCell(wrap(sqLoc.getX() + dx), wrap(sqLoc.getY() + dy));
+    }
+
+    @Override
+    public boolean isOffsetOnGrid(ILocation location, int dx, int dy) {
+        return true;
+    }
+
+    @Override
+    public int getEmptyNeighborMask(ILocation location) {
+        SquareLocation sqLoc = (SquareLocation) location;
+        int left = wrap(sqLoc.getX() - 1);
+        int right = wrap(sqLoc.getX() + 1);
+        int up = wrap(sqLoc.getY() - 1);
+        int down = wrap(sqLoc.getY() + 1);
+
+        //Offsets in the order of MooreNeighborhood.ofRange(1)
+        int mask = 0;
+        if (getCell(left, up) == null) mask |= 1;
+        if (getCell(left, sqLoc.getY()) == null) mask |= 1 << 1;
+        if (getCell(left, down) == null) mask |= 1 << 2;
+        if (getCell(sqLoc.getX(), up) == null) mask |= 1 << 3;
+        if (getCell(sqLoc.getX(), down) == null) mask |= 1 << 4;
+        if (getCell(right, up) == null) mask |= 1 << 5;
+        if (getCell(right, sqLoc.getY()) == null) mask |= 1 << 6;
+        if (getCell(right, down) == null) mask |= 1 << 7;
+        return mask;
     }
 
     @Override
@@ -46,11 +105,8 @@ public class ToroidalMap extends SquareMap {
         assert loc21 instanceof ToroidalLocation;
         assert loc22 instanceof ToroidalLocation;
 
-        SquareLocation transformedLoc12 = ((ToroidalLocation) loc12).compareTo((ToroidalLocation) loc11);
-        SquareLocation transformedLoc21 = ((ToroidalLocation) loc21).compareTo((ToroidalLocation) loc11);
-        SquareLocation transformedLoc22 = ((ToroidalLocation) loc22).compareTo((ToroidalLocation) loc11);
-
-        return super.crossed(loc11, transformedLoc12, transformedLoc21, transformedLoc22, strict);
+        //Measure every location from loc11, so that bonds across the edge of the map are not split
+        return super.crossed(PackedLocation.ORIGIN, getPackedOffset(loc11, loc12), getPackedOffset(loc11, loc21), getPackedOffset(loc11, loc22), strict);
 
     }
 
@@ -61,17 +117,18 @@ public class ToroidalMap extends SquareMap {
 
     public int getDistance(ILocation loc1, ILocation loc2) {
 
-        return loc1.distance(loc2);
+        return PackedLocation.distance(getPackedOffset(loc1, loc2), PackedLocation.ORIGIN);
     }
 
     @Override
     public ArrayList<ILocation> getLocationsWithinRange(ILocation location, int range) {
-        ArrayList<ILocation> locations = super.getLocationsWithinRange(location, range);
+        SquareLocation sqLoc = (SquareLocation) location;
+        MooreNeighborhood neighborhood = MooreNeighborhood.ofRange(range);
 
-        ArrayList<ILocation> result = new ArrayList<>();
-
-        for (ILocation iLocation : locations) {
-            result.add(new ToroidalLocation((SquareLocation) iLocation, getSize()));
+        //Every location is on the torus, so each neighbor is wrapped directly
+        ArrayList<ILocation> result = new ArrayList<>(neighborhood.size());
+        for (int i = 0; i < neighborhood.size(); i++) {
+            result.add(new ToroidalLocation(wrap(sqLoc.getX() + neighborhood.dx[i]), wrap(sqLoc.getY() + neighborhood.dy[i]), getSize()));
         }
 
         return result;
@@ -99,46 +156,23 @@ public class ToroidalMap extends SquareMap {
         assert endLoc instanceof ToroidalLocation;
         assert startLoc instanceof ToroidalLocation;
 
-        ToroidalLocation end = (ToroidalLocation) endLoc;
-        SquareLocation start = ((ToroidalLocation) startLoc).compareTo(end);
-
-        int deltaX = end.getX() - start.getX();
-        int deltaY = end.getY() - start.getY();
+        int end = PackedLocation.pack((SquareLocation) endLoc);
+        int delta = getPackedOffset(startLoc, endLoc);
 
-        LinkedList<ILocation> result = new LinkedList<>();
-
-        //We want a line of length 2*range + 1
-        //This line is the edge of all cells contained within the range
-        //If we shift in multiple dimensions, we simply take the union
-        if (deltaX != 0) {
-            //deltaX is used as the sign
-            int x = end.getX() + range * deltaX;
-            for (int y = end.getY() - range; y <= end.getY() + range; y++) {
-                result.add(new ToroidalLocation(x, y));
-            }
-        }
-
-        //Same calculations as above
-        if (deltaY != 0) {
-            int y = end.getY() + range * deltaY;
-            for (int x = end.getX() - range; x <= end.getX() + range; x++) {
-                result.add(new ToroidalLocation(x, y));
-            }
-        }
-
-        //Remove the overlap
-        if (deltaX != 0 && deltaY != 0) {
-            result.remove(new ToroidalLocation(end.getX() + deltaX * range, end.getY() + deltaY * range));
-        }
-
-        //Check to make sure that all elements are contained in the list
-        Iterator iter = result.iterator();
-        while (iter.hasNext()) {
-            if (!isOnGrid((ILocation) iter.next())) {
-                iter.remove();
-            }
+        ArrayList<ILocation> result = new ArrayList<>();
+        //Every cell lies on the torus once wrapped
+        for (int cell : newlyInRange(end, PackedLocation.getX(delta), PackedLocation.getY(delta), range)) {
+            result.add(new ToroidalLocation(PackedLocation.getX(cell), PackedLocation.getY(cell), getSize()));
         }
 
         return result;
     }
+
+    @Override
+    public int getPackedOffset(ILocation from, ILocation to) {
+        SquareLocation fromLoc = (SquareLocation) from;
+        SquareLocation toLoc = (SquareLocation) to;
+        return PackedLocation.pack(ToroidalLocation.shortestOffset(toLoc.getX() - fromLoc.getX(), getSize()),
+                ToroidalLocation.shortestOffset(toLoc.getY() - fromLoc.getY(), getSize()));
+    }
 }
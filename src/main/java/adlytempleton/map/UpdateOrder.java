@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+/**
+ * The order in which Simulator.tick moves atoms
+ */
+public enum UpdateOrder {
+    /**
+     * A uniformly random permutation of all atoms
+     */
+    SHUFFLE,
+
+    /**
+     * Atoms are grouped into square blocks of the map. Blocks are visited in a random order,
+     * and the atoms within each block in a random order, so that consecutive atoms share cache lines of the grid
+     * Every atom still moves once per tick. Only maps derived from SquareMap support this, others fall back to SHUFFLE
+     */
+    BLOCKS
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.monitor;
+
+import adlytempleton.atom.AtomStore;
+import adlytempleton.map.PackedLocation;
+import adlytempleton.map.Simulator;
+import adlytempleton.map.SquareMap;
+import adlytempleton.map.UpdateOrder;
+import adlytempleton.simulator.Serialization;
+import adlytempleton.simulator.SimulatorConstants;
+
+/**
+ * Times the simulator on a saved state, without a GUI
+ * <p>
+ * Run through the CLI with -b [state] [ticks]
+ * Each configuration loads a fresh copy of the state, runs untimed warmup ticks, then reports ticks per second
+ * Update orders are also compared by how far atoms move under them, as a faster order must not change the dynamics
+ */
+public class Benchmark {
+
+    //Filename of the state to be loaded (ie. cell.json)
+    public String state = "cell.json";
+
+    public int warmupTicks = 300;
+    public int ticks = 500;
+
+    //Ticks over which movement is tracked when comparing update orders
+    public int statisticsTicks = 200;
+
+    public void run() {
+        boolean toroidal = SimulatorConstants.TOROIDAL_MAP;
+        boolean tiled = SimulatorConstants.TILED_MAP;
+        boolean mapped = SimulatorConstants.MAPPED_GRID;
+        boolean parallel = SimulatorConstants.PARALLEL_TICK;
+        UpdateOrder updateOrder = SimulatorConstants.UPDATE_ORDER;
+
+        try {
+            SimulatorConstants.TOROIDAL_MAP = false;
+            SimulatorConstants.TILED_MAP = false;
+            SimulatorConstants.MAPPED_GRID = false;
+            SimulatorConstants.PARALLEL_TICK = false;
+            SimulatorConstants.UPDATE_ORDER = UpdateOrder.SHUFFLE;
+            report("bounded map", ticksPerSecond());
+
+            SimulatorConstants.TOROIDAL_MAP = true;
+            report("toroidal map", ticksPerSecond());
+            SimulatorConstants.TOROIDAL_MAP = false;
+
+            SimulatorConstants.TILED_MAP = true;
+            report("tiled map", ticksPerSecond());
+            SimulatorConstants.TILED_MAP = false;
+
+            SimulatorConstants.MAPPED_GRID = true;
+            report("mapped grid", ticksPerSecond());
+            SimulatorConstants.MAPPED_GRID = false;
+
+            SimulatorConstants.PARALLEL_TICK = true;
+            report("parallel tick", ticksPerSecond());
+            SimulatorConstants.PARALLEL_TICK = false;
+
+            //Compare update orders by speed, and by how atoms move under them
+            for (UpdateOrder order : UpdateOrder.values()) {
+                SimulatorConstants.UPDATE_ORDER = order;
+                double[] movement = movementStatistics();
+                report(order.name().toLowerCase() + " order", ticksPerSecond());
+                System.out.println(String.format("%-16s %10.4f moves per atom per tick, mean squared displacement %.2f", "", movement[0], movement[1]));
+            }
+        } finally {
+            SimulatorConstants.TOROIDAL_MAP = toroidal;
+            SimulatorConstants.TILED_MAP = tiled;
+            SimulatorConstants.MAPPED_GRID = mapped;
+            SimulatorConstants.PARALLEL_TICK = parallel;
+            SimulatorConstants.UPDATE_ORDER = updateOrder;
+        }
+    }
+
+    private void report(String name, double ticksPerSecond) {
+        System.out.println(String.format("%-16s %10.2f ticks/s", name, ticksPerSecond));
+    }
+
+    /**
+     * Loads the state with the current SimulatorConstants, and tracks every atom over statisticsTicks ticks
+     *
+     * @return The fraction of atoms which move each tick, and the mean squared displacement of all atoms by the end
+     */
+    private double[] movementStatistics() {
+        SquareMap map = Serialization.fromFile(state, false);
+        Simulator simulator = new Simulator(map);
+        simulator.populateFood(map);
+
+        AtomStore store = map.getAtomStore();
+        int atomCount = store.size();
+        int[] previous = new int[atomCount];
+        long[] displacementX = new long[atomCount];
+        long[] displacementY = new long[atomCount];
+        long moves = 0;
+
+        for (int tick = 0; tick < statisticsTicks; tick++) {
+            for (int id = 0; id < atomCount; id++) {
+                previous[id] = store.getLocation(id);
+            }
+
+            simulator.tick(tick);
+
+            //Offsets are taken through the map, so that moves across the edge of a torus count as one step
+            for (int id = 0; id < atomCount; id++) {
+                int offset = map.getPackedOffset(PackedLocation.toLocation(previous[id]), PackedLocation.toLocation(store.getLocation(id)));
+                if (offset != PackedLocation.ORIGIN) {
+                    moves++;
+                    displacementX[id] += PackedLocation.getX(offset);
+                    displacementY[id] += PackedLocation.getY(offset);
+                }
+            }
+        }
+
+        double squaredDisplacement = 0;
+        for (int id = 0; id < atomCount; id++) {
+            squaredDisplacement += displacementX[id] * displacementX[id] + displacementY[id] * displacementY[id];
+        }
+
+        return new double[]{(double) moves / atomCount / statisticsTicks, squaredDisplacement / atomCount};
+    }
+
+    /**
+     * Loads the state with the current SimulatorConstants, and times the simulation
+     */
+    private double ticksPerSecond() {
+        SquareMap map = Serialization.fromFile(state, false);
+        Simulator simulator = new Simulator(map);
+        simulator.populateFood(map);
+
+        for (int i = 0; i < warmupTicks; i++) {
+            simulator.tick(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            simulator.tick(warmupTicks + i);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return ticks * 1e9 / elapsed;
+    }
+}
@@ -1,6 +1,6 @@
 package adlytempleton.monitor;
 
-import adlytempleton.atom.Atom;
+import adlytempleton.atom.AtomStore;
 import adlytempleton.map.AbstractMap;
 
 /**
@@ -9,11 +9,12 @@ import adlytempleton.map.AbstractMap;
 public class Biomass {
 
     public static float calculateBiomassPercentage(AbstractMap map){
-        int totalAtoms = map.getAllAtoms().size();
+        AtomStore store = map.getAtomStore();
+        int totalAtoms = store.size();
 
         int nonFoodAtoms = 0;
-        for(Atom atom : map.getAllAtoms()){
-            if(atom.state != 0 || atom.isEnzyme() || atom.bonds.size() > 0){
+        for(int id = 0; id < totalAtoms; id++){
+            if(!store.isFood(id)){
                 nonFoodAtoms += 1;
             }
         }
@@ -31,7 +31,8 @@ public class EventTracker {
     public static Multimap<ReactionData, Integer> records = HashMultimap.create(monitoredReactions.length, 1000);
 
 
-    public static void notifyOfReaction(ReactionData activatedReaction) {
+    //Synchronized, as reactions may be applied on several threads during a parallel tick
+    public static synchronized void notifyOfReaction(ReactionData activatedReaction) {
         for (ReactionData data : monitoredReactions) {
             if (activatedReaction.equals(data)) {
                 records.put(data, Simulator.ticks);
@@ -13,8 +13,10 @@
 package adlytempleton.monitor;
 
 import adlytempleton.map.AbstractMap;
+import adlytempleton.map.CompartmentIndex;
 import adlytempleton.map.Simulator;
 import adlytempleton.map.SquareMap;
+import adlytempleton.map.UpdateOrder;
 import adlytempleton.reaction.ReactionData;
 import adlytempleton.simulator.Serialization;
 import adlytempleton.simulator.SimulatorConstants;
@@ -50,6 +52,10 @@ public class Experiment {
 
     public boolean showGUI = true;
 
+    //Ticks between updates of the compartment labels, which must be frequent enough to see each cell division
+    //0 disables tracking of cells. Off by default, as the labels take three ints per grid cell
+    public int compartmentInterval = 0;
+
     public void run(String filename) throws IOException {
         load(filename);
 
@@ -73,6 +79,10 @@ public class Experiment {
                 System.out.println(ticks + " " + (System.currentTimeMillis() - start));
             }
 
+            if (compartmentInterval > 0 && ticks % compartmentInterval == 0) {
+                ((SquareMap) map).getCompartments().update();
+            }
+
             if (ticks % 10000 == 0) {
 
 
@@ -112,6 +122,13 @@ public class Experiment {
 
         Path biomassPath = Paths.get(String.format("%s/%s/biomass.json", System.getProperty("user.dir"), numberedFilename));
         Files.write(biomassPath, String.format("%d:%f\n", ticks, Biomass.calculateBiomassPercentage(map)).getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        if (compartmentInterval > 0) {
+            //Living cells, and the total number of divisions so far
+            CompartmentIndex compartments = ((SquareMap) map).getCompartments();
+            Path cellsPath = Paths.get(String.format("%s/%s/cells.json", System.getProperty("user.dir"), numberedFilename));
+            Files.write(cellsPath, String.format("%d:%d:%d\n", ticks, compartments.getCellCount(), compartments.getDivisionCount()).getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
     }
 
     private void snapshot(int ticks) throws IOException {
@@ -181,6 +198,34 @@ public class Experiment {
                 SimulatorConstants.MAP_SIZE = Integer.parseInt(prop.getProperty("mapSize"));
             }
 
+            if (prop.containsKey("tiledMap")) {
+                SimulatorConstants.TILED_MAP = Boolean.parseBoolean(prop.getProperty("tiledMap"));
+            }
+
+            if (prop.containsKey("mappedGrid")) {
+                SimulatorConstants.MAPPED_GRID = Boolean.parseBoolean(prop.getProperty("mappedGrid"));
+            }
+
+            if (prop.containsKey("updateOrder")) {
+                SimulatorConstants.UPDATE_ORDER = UpdateOrder.valueOf(prop.getProperty("updateOrder").toUpperCase());
+            }
+
+            if (prop.containsKey("seed")) {
+                SimulatorConstants.RANDOM_SEED = Long.parseLong(prop.getProperty("seed"));
+            }
+
+            if (prop.containsKey("compartmentInterval")) {
+                compartmentInterval = Integer.parseInt(prop.getProperty("compartmentInterval"));
+            }
+
+            if (prop.containsKey("compartmentBlocking")) {
+                SimulatorConstants.COMPARTMENT_BLOCKING = Boolean.parseBoolean(prop.getProperty("compartmentBlocking"));
+            }
+
+            if (prop.containsKey("parallel")) {
+                SimulatorConstants.PARALLEL_TICK = Boolean.parseBoolean(prop.getProperty("parallel"));
+            }
+
             if (prop.containsKey("mutationChance")) {
                 SimulatorConstants.MUTATION_CHANCE = Float.parseFloat(prop.getProperty("mutationChance"));
             }
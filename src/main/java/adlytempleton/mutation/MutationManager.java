@@ -39,9 +39,13 @@ public class MutationManager {
         return mutations;
     }
 
-    public static void mutate(Atom atom, AbstractMap map) {
+    /**
+     * Randomly mutates the reactions of an atom, with a chance of SimulatorConstants.MUTATION_CHANCE
+     *
+     * @param random The random number generator of the simulation
+     */
+    public static void mutate(Atom atom, AbstractMap map, Random random) {
 
-        Random random = new Random();
         if (random.nextFloat() < SimulatorConstants.MUTATION_CHANCE && atom != null && Simulator.ticks > SimulatorConstants.MUTATION_DELAY) {
             //Note that getReactions returns a shallow clone
             ReactionData[] reactions = atom.getReactions();
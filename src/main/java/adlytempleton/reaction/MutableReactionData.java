@@ -68,6 +68,6 @@ public class MutableReactionData {
     }
 
     public ReactionData toReaction() {
-        return new ReactionData(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, copiesReaction);
+        return ReactionData.create(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, copiesReaction);
     }
 }
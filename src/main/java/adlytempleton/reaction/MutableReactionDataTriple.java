@@ -42,6 +42,6 @@ public class MutableReactionDataTriple extends MutableReactionData {
 
     @Override
     public ReactionData toReaction() {
-        return new ReactionDataTriple(type1, type2, type3, preState1, preState2, preState3, postState1, postState2, postState3, preBonded, preBonded23, preBonded31, postBonded, postBonded23, postBonded31);
+        return ReactionDataTriple.create(type1, type2, type3, preState1, preState2, preState3, postState1, postState2, postState3, preBonded, preBonded23, preBonded31, postBonded, postBonded23, postBonded31);
     }
 }
@@ -21,6 +21,9 @@ import adlytempleton.mutation.MutationManager;
 
 /**
  * Created by ATempleton on 11/14/2015.
+ * <p>
+ * Reactions are interned by ReactionPool: every reaction is created through fromString, create or MutableReactionData.toReaction,
+ * which return the one canonical instance for its contents. Two reactions are therefore equal only if they are the same instance
  */
 public class ReactionData {
 
@@ -37,6 +40,11 @@ public class ReactionData {
 
     public final boolean copiesReaction;
 
+    //Assigned by ReactionPool when the reaction is interned
+    int id = -1;
+    int hash;
+    ReactionMatcher matcher;
+
     /**
      * Constructs a reaction from all component elements
      *
@@ -49,7 +57,7 @@ public class ReactionData {
      * @param preBonded  Are atoms bonded before reaction
      * @param postBonded Are atoms bonded after reaction
      */
-    public ReactionData(EnumType type1, EnumType type2, int preState1, int preState2, int postState1, int postState2, boolean preBonded, boolean postBonded, boolean copiesReaction) {
+    protected ReactionData(EnumType type1, EnumType type2, int preState1, int preState2, int postState1, int postState2, boolean preBonded, boolean postBonded, boolean copiesReaction) {
         this.type1 = type1;
         this.type2 = type2;
         this.preState1 = preState1;
@@ -61,6 +69,13 @@ public class ReactionData {
         this.copiesReaction = copiesReaction;
     }
 
+    /**
+     * @return The canonical reaction with the given components. See the constructor for the parameters
+     */
+    public static ReactionData create(EnumType type1, EnumType type2, int preState1, int preState2, int postState1, int postState2, boolean preBonded, boolean postBonded, boolean copiesReaction) {
+        return ReactionPool.intern(new ReactionData(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, copiesReaction));
+    }
+
     public static ReactionData fromString(String s) {
         if (s.startsWith("3:"))  {
             return ReactionDataTriple.fromString(s.replaceFirst("3:", ""));
@@ -110,7 +125,7 @@ public class ReactionData {
 
         boolean copiesReaction = s.equals("(cpy)");
 
-        return new ReactionData(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, copiesReaction);
+        return create(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, copiesReaction);
 
     }
 
@@ -129,9 +144,12 @@ public class ReactionData {
         return result;
     }
 
+    /**
+     * Reactions are immutable and interned, so a reaction is its own clone
+     */
     @Override
     public Object clone() throws CloneNotSupportedException {
-        return new ReactionData(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, copiesReaction);
+        return this;
     }
 
     @Override
@@ -141,22 +159,41 @@ public class ReactionData {
     }
 
     /**
-     * This implementation is based around use in a HashMap
-     * Does not include wildcard matching
+     * @return A dense id, unique to this reaction, from 0 to ReactionPool.size() - 1
      */
-    @Override
-    public boolean equals(Object obj) {
-        if (!(obj instanceof ReactionData)) {
-            return false;
-        }
+    public int getId() {
+        return id;
+    }
 
-        //Simple check on the representative string
-        ReactionData rxn = (ReactionData) obj;
-        return toString().equals(rxn.toString());
+    /**
+     * @return The precompiled form of matches for this reaction
+     */
+    public ReactionMatcher getMatcher() {
+        return matcher;
     }
 
+    /**
+     * Compares the contents of two reactions. Used by ReactionPool to find the canonical instance
+     * Does not include wildcard matching
+     */
+    protected boolean sameReaction(ReactionData rxn) {
+        return type1 == rxn.type1 && type2 == rxn.type2 && preState1 == rxn.preState1 && preState2 == rxn.preState2
+                && postState1 == rxn.postState1 && postState2 == rxn.postState2 && preBonded == rxn.preBonded
+                && postBonded == rxn.postBonded && copiesReaction == rxn.copiesReaction;
+    }
+
+    /**
+     * Cached when the reaction is interned
+     */
     @Override
     public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Hash of the contents of the reaction, consistent with sameReaction
+     */
+    protected int contentHash() {
         //Each integer that defines the atom is multiplied by 37 to some power
         int result = 13;
         result = result * 37 + type1.ordinal();
@@ -202,15 +239,15 @@ public class ReactionData {
 
 
             //States of atoms are valid
-            if (a1.state == preState1 && a2.state == preState2) {
+            if (a1.getState() == preState1 && a2.getState() == preState2) {
 
-                if (a1.bonds.contains(a2) == preBonded) {
+                if (a1.isBondedTo(a2) == preBonded) {
 
                     //If the reaction applies to any two atoms of the same type
                     boolean sameTypes = type1.isWildcard() && type1 == type2;
 
                     //Types of atoms are valid
-                    if ((sameTypes && a1.type == a2.type) || (!sameTypes && a1.type.matches(type1) && a2.type.matches(type2))) {
+                    if ((sameTypes && a1.getType() == a2.getType()) || (!sameTypes && a1.getType().matches(type1) && a2.getType().matches(type2))) {
 
 
                         return true;
@@ -223,6 +260,16 @@ public class ReactionData {
 
     }
 
+    /**
+     * Runs the reaction on a set of atoms which it has been matched to by getMatcher()
+     *
+     * @param permutation The order of the atoms returned by ReactionMatcher.match
+     */
+    public void apply(int permutation, Atom a1, Atom a2, Atom a3, AbstractMap map, Simulator simulator) {
+        //A two-atom reaction may apply to several pairs of the atoms, which are each checked again as the reaction runs
+        apply(a1, a2, a3, map, simulator);
+    }
+
     /**
      * Runs the reaction on the given set of atoms. If this is a 2-reactant reaction, all valid reactions will be performed sequentially
      */
@@ -259,8 +306,8 @@ public class ReactionData {
 
         if (!simulator.doesBondCross(atom1, atom1.getLocation(), atom2, atom2.getLocation())) {
             if (ReactionManager.enzymeNearby(atom1, atom2, this, map)) {
-                atom1.state = postState1;
-                atom2.state = postState2;
+                atom1.setState(postState1);
+                atom2.setState(postState2);
 
                 //The bond and unbond methods contain the checks for the pre-reaction states
                 if (postBonded) {
@@ -276,7 +323,7 @@ public class ReactionData {
 
                     atom2.setReactions(atom1.getReactions());
 
-                    MutationManager.mutate(atom2, map);
+                    MutationManager.mutate(atom2, map, simulator.getRandom());
                     map.addToEnzymeMap(atom2);
 
                 }
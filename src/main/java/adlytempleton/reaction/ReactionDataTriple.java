@@ -46,7 +46,7 @@ public class ReactionDataTriple extends ReactionData {
      * @param preBonded  Are atoms 1 and 2 bonded before reaction
      * @param postBonded Are atoms 1 and 2 bonded after reaction
      */
-    public ReactionDataTriple(EnumType type1, EnumType type2, EnumType type3, int preState1, int preState2, int prestate3, int postState1, int postState2, int postState3, boolean preBonded, boolean preBonded23, boolean preBonded31, boolean postBonded, boolean postBonded23, boolean postBonded31) {
+    protected ReactionDataTriple(EnumType type1, EnumType type2, EnumType type3, int preState1, int preState2, int prestate3, int postState1, int postState2, int postState3, boolean preBonded, boolean preBonded23, boolean preBonded31, boolean postBonded, boolean postBonded23, boolean postBonded31) {
         super(type1, type2, preState1, preState2, postState1, postState2, preBonded, postBonded, false);
 
         this.type3 = type3;
@@ -58,6 +58,13 @@ public class ReactionDataTriple extends ReactionData {
         this.postBonded31 = postBonded31;
     }
 
+    /**
+     * @return The canonical reaction with the given components. See the constructor for the parameters
+     */
+    public static ReactionData create(EnumType type1, EnumType type2, EnumType type3, int preState1, int preState2, int prestate3, int postState1, int postState2, int postState3, boolean preBonded, boolean preBonded23, boolean preBonded31, boolean postBonded, boolean postBonded23, boolean postBonded31) {
+        return ReactionPool.intern(new ReactionDataTriple(type1, type2, type3, preState1, preState2, prestate3, postState1, postState2, postState3, preBonded, preBonded23, preBonded31, postBonded, postBonded23, postBonded31));
+    }
+
 
     public static ReactionData fromString(String s) {
 
@@ -133,7 +140,7 @@ public class ReactionDataTriple extends ReactionData {
         boolean postBonded31 = s.startsWith("-");
         s = s.substring(1);
 
-        return new ReactionDataTriple(type1, type2, type3, preState1, preState2, preState3, postState1, postState2, postState3, preBonded, preBonded23, preBonded31, postBonded, postBonded23, postBonded31);
+        return create(type1, type2, type3, preState1, preState2, preState3, postState1, postState2, postState3, preBonded, preBonded23, preBonded31, postBonded, postBonded23, postBonded31);
     }
 
     @Override
@@ -145,12 +152,19 @@ public class ReactionDataTriple extends ReactionData {
     }
 
     @Override
-    public Object clone() throws CloneNotSupportedException {
-        return new ReactionDataTriple(type1, type2, type3, preState1, preState2, preState3, postState1, postState2, postState3, preBonded, preBonded23, preBonded31, postBonded, postBonded23, postBonded31);
+    protected boolean sameReaction(ReactionData rxn) {
+        if (!super.sameReaction(rxn)) {
+            return false;
+        }
+
+        ReactionDataTriple triple = (ReactionDataTriple) rxn;
+        return type3 == triple.type3 && preState3 == triple.preState3 && postState3 == triple.postState3
+                && preBonded23 == triple.preBonded23 && preBonded31 == triple.preBonded31
+                && postBonded23 == triple.postBonded23 && postBonded31 == triple.postBonded31;
     }
 
     @Override
-    public int hashCode() {
+    protected int contentHash() {
         //Each integer that defines the atom is multiplied by 37 to some power
         int result = 13;
         result = result * 37 + type1.ordinal();
@@ -191,10 +205,10 @@ public class ReactionDataTriple extends ReactionData {
         boolean sameTypes = type1.isWildcard() && type1 == type2 && type2 == type3;
 
         //Types of atoms are valid
-        boolean typesMatch = (sameTypes && a1.type == a2.type && a2.type == a3.type) || (!sameTypes && a1.type.matches(type1) && a2.type.matches(type2) && a3.type.matches(type3));
+        boolean typesMatch = (sameTypes && a1.getType() == a2.getType() && a2.getType() == a3.getType()) || (!sameTypes && a1.getType().matches(type1) && a2.getType().matches(type2) && a3.getType().matches(type3));
 
         //States of atoms are valid
-        boolean statesMatch = a1.state == preState1 && a2.state == preState2 && a3.state == preState3;
+        boolean statesMatch = a1.getState() == preState1 && a2.getState() == preState2 && a3.getState() == preState3;
 
         boolean bondsMatch = (a1.isBondedTo(a2) == preBonded) && (a2.isBondedTo(a3) == preBonded23) && (a3.isBondedTo(a1) == preBonded31);
 
@@ -230,6 +244,13 @@ public class ReactionDataTriple extends ReactionData {
         }
     }
 
+    @Override
+    public void apply(int permutation, Atom a1, Atom a2, Atom a3, AbstractMap map, Simulator simulator) {
+        Atom[] atoms = {a1, a2, a3};
+        int[] order = ReactionMatcher.PERMUTATIONS[permutation];
+        applyTriple(atoms[order[0]], atoms[order[1]], atoms[order[2]], map, simulator);
+    }
+
     /**
      * Applies the reaction to an order-dependent triple of atoms
      */
@@ -241,9 +262,9 @@ public class ReactionDataTriple extends ReactionData {
         }
         if (ReactionManager.enzymeNearby(atom1, atom2, this, map) && ReactionManager.enzymeNearby(atom2, atom3, this, map)) {
 
-            atom1.state = postState1;
-            atom2.state = postState2;
-            atom3.state = postState3;
+            atom1.setState(postState1);
+            atom2.setState(postState2);
+            atom3.setState(postState3);
 
             //The bond and unbond methods contain the checks for the pre-reaction states
             if (postBonded) {
@@ -34,8 +34,13 @@ public class ReactionManager {
      */
     public static Set<ReactionData> getRelaventReactions(AbstractMap map, Atom atom1, Atom atom2){
         Set<ReactionData> reactions = new HashSet<>();
-        reactions.addAll(map.enzymes.get(atom1.state).keySet());
-        reactions.addAll(map.enzymes.get(atom2.state).keySet());
+        map.enzymeLock.readLock().lock();
+        try {
+            reactions.addAll(map.enzymes.get(atom1.getState()).keySet());
+            reactions.addAll(map.enzymes.get(atom2.getState()).keySet());
+        } finally {
+            map.enzymeLock.readLock().unlock();
+        }
         return reactions;
     }
 
@@ -45,8 +50,13 @@ public class ReactionManager {
     public static Set<Atom> getRelaventEnzymes(AbstractMap map, ReactionData rxn){
 
         Set<Atom> reactions = new HashSet<>();
-        reactions.addAll(map.enzymes.get(rxn.preState1).get(rxn));
-        reactions.addAll(map.enzymes.get(rxn.preState2).get(rxn));
+        map.enzymeLock.readLock().lock();
+        try {
+            reactions.addAll(map.enzymes.get(rxn.preState1).get(rxn));
+            reactions.addAll(map.enzymes.get(rxn.preState2).get(rxn));
+        } finally {
+            map.enzymeLock.readLock().unlock();
+        }
         return reactions;
     }
 
@@ -61,20 +71,51 @@ public class ReactionManager {
      */
     public static boolean react(Atom atom1, Atom atom2, Atom atom3, AbstractMap map, Simulator simulator) {
 
-        //For testing purposes, this ReactionData is hardcoded in
-        Set<ReactionData> reactions = getRelaventReactions(map, atom1, atom1);
-        //Note that we only need to check 2 arbitrary states of the three
-        //As each reaction is listed under multiple states
+        //Reactions listed under the type and state of either atom, so that the order of atom1 and atom2 does not matter
+        //Note that we only need to check 2 arbitrary atoms of the three
+        //As each reaction is listed under every atom it applies to
+        ReactionData[] candidates1;
+        ReactionData[] candidates2;
+        map.enzymeLock.readLock().lock();
+        try {
+            candidates1 = map.reactionTable.getCandidates(atom1.getType(), atom1.getState());
+            candidates2 = map.reactionTable.getCandidates(atom2.getType(), atom2.getState());
+        } finally {
+            map.enzymeLock.readLock().unlock();
+        }
 
-        for (ReactionData reactionData : reactions) {
-            if (reactionData.matches(atom1, atom2, atom3)) {
+        //The atoms are described once for the compiled matchers. On a small torus, the same atom may be passed twice
+        boolean distinct = atom1 != atom2 && atom2 != atom3 && atom3 != atom1;
+        int key1 = ReactionMatcher.key(atom1);
+        int key2 = ReactionMatcher.key(atom2);
+        int key3 = ReactionMatcher.key(atom3);
+        int bonds = ReactionMatcher.bonds(atom1, atom2, atom3);
+
+        int count = candidates1.length + candidates2.length;
+        for (int i = 0; i < count; i++) {
+            ReactionData reactionData;
+            if (i < candidates1.length) {
+                reactionData = candidates1[i];
+            } else {
+                reactionData = candidates2[i - candidates1.length];
+                //Reactions listed under both atoms have already been checked
+                if (ReactionTable.involves(reactionData, atom1.getType(), atom1.getState())) {
+                    continue;
+                }
+            }
+
+            if (distinct) {
+                int permutation = reactionData.getMatcher().match(key1, key2, key3, bonds);
+                if (permutation != ReactionMatcher.NO_MATCH) {
+                    reactionData.apply(permutation, atom1, atom2, atom3, map, simulator);
+                    return true;
+                }
+            } else if (reactionData.matches(atom1, atom2, atom3)) {
                 reactionData.apply(atom1, atom2, atom3, map, simulator);
                 return true;
             }
-
         }
 
-
         return false;
     }
 
@@ -84,60 +125,21 @@ public class ReactionManager {
      * @return true if the reaction is valid, false otherwise
      */
     public static boolean enzymePathBlocked(AbstractMap map, Atom enzyme, Atom reactant1, Atom reactant2) {
-        HashSet<ILocation> crossedArea = map.getCrossedZone(enzyme.getLocation(), reactant1.getLocation());
-        crossedArea.addAll(map.getCrossedZone(enzyme.getLocation(), reactant2.getLocation()));
-
-        for (ILocation loc : crossedArea) {
-            Atom atom = map.getAtomAtLocation(loc);
-            //Check for A-type atom
-            if (atom != null && atom.type == EnumType.A) {
-                for (Atom bondedAtom : atom.bonds) {
-                    if (bondedAtom.type == EnumType.A) {
-                        //Check for uniqueness
-                        if (!(atom == reactant1 || atom == reactant2)) {
-                            if (map.crossed(reactant1.getLocation(), enzyme.getLocation(), atom.getLocation(), bondedAtom.getLocation(), true)) {
-                                return true;
-                            }
-                            if (map.crossed(reactant2.getLocation(), enzyme.getLocation(), atom.getLocation(), bondedAtom.getLocation(), true)) {
-                                return true;
-                            }
-                        }
-                    }
-                }
-            }
+        if (SimulatorConstants.COMPARTMENT_BLOCKING) {
+            return !map.sameCompartment(enzyme.getLocation(), reactant1.getLocation())
+                    || !map.sameCompartment(enzyme.getLocation(), reactant2.getLocation());
         }
 
-        return false;
+        //Membranes formed by the reactants themselves do not block the enzyme
+        return map.membraneCrosses(reactant1.getLocation(), enzyme.getLocation(), reactant1, reactant2)
+                || map.membraneCrosses(reactant2.getLocation(), enzyme.getLocation(), reactant1, reactant2);
     }
 
     /**
      * Returns true if two atoms are connected by a string of bonds, false otherwise
      */
     public static boolean connected(Atom atom1, Atom atom2) {
-        ArrayList<Atom> checkedAtoms = new ArrayList<>();
-        ArrayList<Atom> atomsToCheck = new ArrayList<>();
-
-        atomsToCheck.add(atom1);
-
-        //Basic depth-first search
-        while (atomsToCheck.size() != 0) {
-            Atom atom = atomsToCheck.remove(atomsToCheck.size() - 1);
-            checkedAtoms.add(atom);
-
-            for (Atom bondedAtom : atom.bonds) {
-                if (!checkedAtoms.contains(bondedAtom) && !atomsToCheck.contains(bondedAtom)) {
-                    if (atom == atom2) {
-                        return true;
-                    }
-
-                    atomsToCheck.add(bondedAtom);
-                }
-
-
-            }
-        }
-
-        return false;
+        return atom1.isConnectedTo(atom2);
     }
 
     /**
@@ -151,7 +153,7 @@ public class ReactionManager {
 
         boolean lineBlocked = enzymePathBlocked(map, enzyme, reactant1, reactant2);
 
-        boolean isMembrane = (reactant1.type == EnumType.A && reactant1.state > 30 && reactant1.state < 40) || (reactant2.type == EnumType.A && reactant2.state > 30 && reactant2.state < 40);
+        boolean isMembrane = (reactant1.getType() == EnumType.A && reactant1.getState() > 30 && reactant1.getState() < 40) || (reactant2.getType() == EnumType.A && reactant2.getState() > 30 && reactant2.getState() < 40);
 
         boolean connected = connected(enzyme, reactant1) || connected(enzyme, reactant2);
 
@@ -174,8 +176,15 @@ public class ReactionManager {
      * @return True if an appropriate enzyme is nearby
      */
     public static boolean enzymeNearby(Atom atom1, Atom atom2, ReactionData reaction, AbstractMap map) {
-        //Cycle through all enzymes which contain a given reaction
-        for (Atom enzyme : getRelaventEnzymes(map, reaction)) {
+        //The catalysis field rules out most reactions without listing any enzymes
+        if (!map.isCatalyzed(reaction, atom1.getLocation()) && !map.isCatalyzed(reaction, atom2.getLocation())) {
+            return false;
+        }
+
+        //Cycle through the enzymes which contain a given reaction and lie near the reactants
+        ArrayList<Atom> enzymes = new ArrayList<>();
+        map.getNearbyEnzymes(reaction, atom1.getLocation(), atom2.getLocation(), SimulatorConstants.ENZYME_RANGE, enzymes);
+        for (Atom enzyme : enzymes) {
             //We want to check the distance to either product
             if (map.getDistance(enzyme.getLocation(), atom1.getLocation()) <= SimulatorConstants.ENZYME_RANGE ||
                     map.getDistance(enzyme.getLocation(), atom2.getLocation()) <= SimulatorConstants.ENZYME_RANGE) {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.reaction;
+
+import adlytempleton.atom.Atom;
+import adlytempleton.atom.EnumType;
+
+/**
+ * A precompiled form of ReactionData.matches, built once for each interned reaction
+ * <p>
+ * The three atoms are described by packed keys (see key) and a set of bond bits (see bonds), computed once per set of atoms
+ * rather than once per reaction and permutation. Types are matched against precomputed masks, which already include wildcards,
+ * and permutations are tried in a fixed order with plain integer comparisons
+ * <p>
+ * The atoms must be three distinct atoms. Otherwise, ReactionData.matches must be used
+ */
+public final class ReactionMatcher {
+
+    public static final int NO_MATCH = -1;
+
+    //Orders of the three atoms tried by ReactionDataTriple.apply, in the same order
+    //For two-atom reactions, only the first two atoms of each order are used, which covers every ordered pair
+    static final int[][] PERMUTATIONS = {{0, 1, 2}, {0, 2, 1}, {1, 2, 0}, {1, 0, 2}, {2, 0, 1}, {2, 1, 0}};
+
+    //The bond bit of each pair of atoms, indexed by [first][second]. Bits 0, 1 and 2 are the bonds 1-2, 2-3 and 3-1
+    private static final int[][] BOND_BITS = {{0, 1, 4}, {1, 0, 2}, {4, 2, 0}};
+
+    private static final int STATE_BITS = 24;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+
+    private static final EnumType[] TYPES = EnumType.values();
+
+    private final boolean triple;
+
+    //For each role: the atom types accepted, as a bitmask over EnumType ordinals, and the state
+    private final int[] typeMasks;
+    private final int[] states;
+
+    //If true, all atoms must have the same type, and the type masks accept anything
+    private final boolean sameTypes;
+
+    //Required bonds between roles 1-2, 2-3 and 3-1. Only the first is used for two-atom reactions
+    private final boolean[] bonded;
+
+    private ReactionMatcher(boolean triple, EnumType[] types, int[] states, boolean[] bonded) {
+        this.triple = triple;
+        this.states = states;
+        this.bonded = bonded;
+
+        boolean same = types[0].isWildcard();
+        for (EnumType type : types) {
+            same &= type == types[0];
+        }
+        this.sameTypes = same;
+
+        typeMasks = new int[types.length];
+        for (int role = 0; role < types.length; role++) {
+            for (EnumType type : TYPES) {
+                if (sameTypes || types[role].matches(type)) {
+                    typeMasks[role] |= 1 << type.ordinal();
+                }
+            }
+        }
+    }
+
+    static ReactionMatcher compile(ReactionData rxn) {
+        if (rxn instanceof ReactionDataTriple) {
+            ReactionDataTriple triple = (ReactionDataTriple) rxn;
+            return new ReactionMatcher(true, new EnumType[]{triple.type1, triple.type2, triple.type3},
+                    new int[]{triple.preState1, triple.preState2, triple.preState3},
+                    new boolean[]{triple.preBonded, triple.preBonded23, triple.preBonded31});
+        }
+
+        return new ReactionMatcher(false, new EnumType[]{rxn.type1, rxn.type2}, new int[]{rxn.preState1, rxn.preState2},
+                new boolean[]{rxn.preBonded});
+    }
+
+    /**
+     * @return The type and state of an atom, packed for match
+     */
+    public static int key(Atom atom) {
+        return (atom.getType().ordinal() << STATE_BITS) | (atom.getState() & STATE_MASK);
+    }
+
+    /**
+     * @return The bonds between three atoms, packed for match
+     */
+    public static int bonds(Atom a1, Atom a2, Atom a3) {
+        return (a1.isBondedTo(a2) ? 1 : 0) | (a2.isBondedTo(a3) ? 2 : 0) | (a3.isBondedTo(a1) ? 4 : 0);
+    }
+
+    /**
+     * Equivalent to ReactionData.matches for three distinct atoms
+     *
+     * @param keys  The keys of the three atoms
+     * @param bonds The bonds between them
+     * @return The index in PERMUTATIONS of the first order of the atoms which the reaction applies to, or NO_MATCH
+     */
+    public int match(int key1, int key2, int key3, int bonds) {
+        for (int permutation = 0; permutation < PERMUTATIONS.length; permutation++) {
+            int[] order = PERMUTATIONS[permutation];
+            if (matchesRole(0, key(order[0], key1, key2, key3)) && matchesRole(1, key(order[1], key1, key2, key3))
+                    && isBonded(order[0], order[1], bonds) == bonded[0]) {
+                if (!triple) {
+                    if (!sameTypes || sameType(key(order[0], key1, key2, key3), key(order[1], key1, key2, key3))) {
+                        return permutation;
+                    }
+                } else if (matchesRole(2, key(order[2], key1, key2, key3))
+                        && isBonded(order[1], order[2], bonds) == bonded[1]
+                        && isBonded(order[2], order[0], bonds) == bonded[2]
+                        && (!sameTypes || (sameType(key1, key2) && sameType(key2, key3)))) {
+                    return permutation;
+                }
+            }
+        }
+
+        return NO_MATCH;
+    }
+
+    private boolean matchesRole(int role, int key) {
+        return (key & STATE_MASK) == states[role] && (typeMasks[role] & (1 << (key >>> STATE_BITS))) != 0;
+    }
+
+    private static int key(int atom, int key1, int key2, int key3) {
+        return atom == 0 ? key1 : atom == 1 ? key2 : key3;
+    }
+
+    private static boolean isBonded(int atom1, int atom2, int bonds) {
+        return (bonds & BOND_BITS[atom1][atom2]) != 0;
+    }
+
+    private static boolean sameType(int key1, int key2) {
+        return key1 >>> STATE_BITS == key2 >>> STATE_BITS;
+    }
+}
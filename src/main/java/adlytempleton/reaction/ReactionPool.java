@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.reaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Holds the canonical instance of every reaction which has been created
+ * <p>
+ * Interning lets ReactionData use identity for equality, where it used to compare the output of toString,
+ * and gives each reaction a dense id, a cached hash and a compiled ReactionMatcher.
+ * Reactions are never released, as ids must stay valid; the pool grows with the number of distinct reactions created by mutation
+ * <p>
+ * Synchronized, as mutations may create reactions on several threads during a parallel tick
+ */
+public final class ReactionPool {
+
+    private static final HashMap<Key, ReactionData> reactions = new HashMap<>();
+
+    //Indexed by id
+    private static final ArrayList<ReactionData> byId = new ArrayList<>();
+
+    private ReactionPool() {
+    }
+
+    /**
+     * @return The canonical instance with the same contents as the given reaction, which becomes canonical if there is none yet
+     */
+    static synchronized ReactionData intern(ReactionData rxn) {
+        Key key = new Key(rxn);
+        ReactionData canonical = reactions.get(key);
+        if (canonical != null) {
+            return canonical;
+        }
+
+        rxn.hash = key.hash;
+        rxn.id = byId.size();
+        rxn.matcher = ReactionMatcher.compile(rxn);
+        byId.add(rxn);
+        reactions.put(key, rxn);
+        return rxn;
+    }
+
+    /**
+     * @return The reaction with the given id
+     */
+    public static synchronized ReactionData get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * @return The number of distinct reactions created so far. Ids run from 0 to size() - 1
+     */
+    public static synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Compares reactions by their contents
+     */
+    private static class Key {
+        private final ReactionData rxn;
+        private final int hash;
+
+        private Key(ReactionData rxn) {
+            this.rxn = rxn;
+            this.hash = rxn.contentHash();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            ReactionData other = ((Key) obj).rxn;
+            return rxn.getClass() == other.getClass() && rxn.sameReaction(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
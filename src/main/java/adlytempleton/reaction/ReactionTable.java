@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.reaction;
+
+import adlytempleton.atom.EnumType;
+
+import java.util.Arrays;
+
+/**
+ * Dispatch table from the type and state of an atom to the reactions it may take part in
+ * <p>
+ * Holds every reaction which is catalyzed by some enzyme on the map. Each reaction is listed under the (type, state)
+ * of every atom it applies to, so the candidates for a pair of atoms are found with two array reads.
+ * <p>
+ * The table is kept up to date by AbstractMap as reactions enter and leave the enzyme map.
+ * Each slot is replaced rather than changed, so an array returned by getCandidates may be iterated while reactions change the table
+ */
+public class ReactionTable {
+
+    //Cached, as EnumType.values() returns a new array on every call
+    private static final EnumType[] TYPES = EnumType.values();
+
+    private static final ReactionData[] NONE = new ReactionData[0];
+
+    //Indexed by state * TYPES.length + type.ordinal()
+    private final ReactionData[][] slots;
+
+    public ReactionTable(int maxState) {
+        slots = new ReactionData[maxState * TYPES.length][];
+        clear();
+    }
+
+    /**
+     * Lists a reaction which has entered the enzyme map
+     */
+    public void add(ReactionData rxn) {
+        for (int role = 0; role < roles(rxn); role++) {
+            for (EnumType type : TYPES) {
+                if (typeOf(rxn, role).matches(type)) {
+                    int slot = slot(type, stateOf(rxn, role));
+                    if (!contains(slots[slot], rxn)) {
+                        ReactionData[] candidates = Arrays.copyOf(slots[slot], slots[slot].length + 1);
+                        candidates[candidates.length - 1] = rxn;
+                        slots[slot] = candidates;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a reaction which is no longer catalyzed by any enzyme
+     */
+    public void remove(ReactionData rxn) {
+        for (int role = 0; role < roles(rxn); role++) {
+            for (EnumType type : TYPES) {
+                int slot = slot(type, stateOf(rxn, role));
+                int index = indexOf(slots[slot], rxn);
+                if (index != -1) {
+                    ReactionData[] candidates = new ReactionData[slots[slot].length - 1];
+                    System.arraycopy(slots[slot], 0, candidates, 0, index);
+                    System.arraycopy(slots[slot], index + 1, candidates, index, candidates.length - index);
+                    slots[slot] = candidates;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(slots, NONE);
+    }
+
+    /**
+     * @return Every listed reaction which an atom of the given type and state may take part in. Must not be modified
+     */
+    public ReactionData[] getCandidates(EnumType type, int state) {
+        return slots[slot(type, state)];
+    }
+
+    /**
+     * @return True if the reaction is listed under the given type and state
+     */
+    public static boolean involves(ReactionData rxn, EnumType type, int state) {
+        for (int role = 0; role < roles(rxn); role++) {
+            if (stateOf(rxn, role) == state && typeOf(rxn, role).matches(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int roles(ReactionData rxn) {
+        return rxn instanceof ReactionDataTriple ? 3 : 2;
+    }
+
+    private static int stateOf(ReactionData rxn, int role) {
+        switch (role) {
+            case 0:
+                return rxn.preState1;
+            case 1:
+                return rxn.preState2;
+            default:
+                return ((ReactionDataTriple) rxn).preState3;
+        }
+    }
+
+    private static EnumType typeOf(ReactionData rxn, int role) {
+        switch (role) {
+            case 0:
+                return rxn.type1;
+            case 1:
+                return rxn.type2;
+            default:
+                return ((ReactionDataTriple) rxn).type3;
+        }
+    }
+
+    private static int slot(EnumType type, int state) {
+        return state * TYPES.length + type.ordinal();
+    }
+
+    private static boolean contains(ReactionData[] candidates, ReactionData rxn) {
+        return indexOf(candidates, rxn) != -1;
+    }
+
+    private static int indexOf(ReactionData[] candidates, ReactionData rxn) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].equals(rxn)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
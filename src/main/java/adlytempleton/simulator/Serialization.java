@@ -13,6 +13,7 @@
 package adlytempleton.simulator;
 
 import adlytempleton.atom.Atom;
+import adlytempleton.atom.EnumType;
 import adlytempleton.map.*;
 import adlytempleton.monitor.EnzymeMonitor;
 import adlytempleton.reaction.ReactionData;
@@ -31,6 +32,7 @@ import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
@@ -40,7 +42,8 @@ public class Serialization {
 
     public static SquareMap fromFile(String filename, boolean showGUI) {
         //Creates GSON Object
-        Gson gson = getGson();
+        AtomAdapter atomAdapter = new AtomAdapter();
+        Gson gson = getGson(atomAdapter);
 
         File file = new File(filename);
 
@@ -59,16 +62,22 @@ public class Serialization {
             List<Atom> atoms = gson.fromJson(contents, listType);
 
             //Reform the map
-            map = SimulatorConstants.TOROIDAL_MAP ? new ToroidalMap(SimulatorConstants.MAP_SIZE, showGUI) : new SquareMap(SimulatorConstants.MAP_SIZE, showGUI);
+            if (SimulatorConstants.TOROIDAL_MAP) {
+                map = new ToroidalMap(SimulatorConstants.MAP_SIZE, showGUI);
+            } else if (SimulatorConstants.TILED_MAP) {
+                map = new TiledMap(SimulatorConstants.MAP_SIZE, showGUI);
+            } else if (SimulatorConstants.MAPPED_GRID) {
+                map = new MappedGridMap(SimulatorConstants.MAP_SIZE, showGUI);
+            } else {
+                map = new SquareMap(SimulatorConstants.MAP_SIZE, showGUI);
+            }
 
             for (Atom atom : atoms) {
                 map.addAtom(atom.getLocation(), atom);
             }
 
             //Reform bond data
-            for (Atom atom : map.getAllAtoms()) {
-                atom.reconstructBondList(map);
-            }
+            atomAdapter.loadBonds(map);
 
             //Update enzyme mappings
             map.updateAllEnzymes();
@@ -87,6 +96,10 @@ public class Serialization {
      * @return Gson object
      */
     public static Gson getGson() {
+        return getGson(new AtomAdapter());
+    }
+
+    private static Gson getGson(AtomAdapter atomAdapter) {
         GsonBuilder builder = new GsonBuilder();
         //Splits data across multiple lines
         builder.setPrettyPrinting();
@@ -99,6 +112,8 @@ public class Serialization {
         //Condensed reaction notation
         builder.registerTypeAdapter(ReactionData.class, new ReactionAdapter());
         builder.registerTypeAdapter(ReactionDataTriple.class, new ReactionAdapter());
+        //Atoms on a map hold none of their values
+        builder.registerTypeAdapter(Atom.class, atomAdapter);
 
         return builder.create();
     }
@@ -115,15 +130,14 @@ public class Serialization {
                 file.createNewFile();
             }
 
-            //Collapse the bond data into refrences to locations
-            for (Atom atom : map.getAllAtoms()) {
-                atom.updateBondLocationList();
-            }
+            //The list of atoms is a view of the map, which Gson can only write as a declared list
+            Type listType = new TypeToken<List<Atom>>() {
+            }.getType();
 
             //Write to file
             FileWriter fw = new FileWriter(file.getAbsoluteFile());
             BufferedWriter bw = new BufferedWriter(fw);
-            bw.write(gson.toJson(map.getAllAtoms()));
+            bw.write(gson.toJson(map.getAllAtoms(), listType));
             bw.close();
 
         } catch (IOException e) {
@@ -164,6 +178,124 @@ public class Serialization {
         }
     }
 
+    /**
+     * Reads and writes atoms with their values, as an atom on a map only holds a handle to them
+     * <p>
+     * Bonds are written as the offsets to each bonded atom, which eliminates circular refrences.
+     * Offsets which are read are kept until every atom has been added to the map, see loadBonds
+     */
+    public static class AtomAdapter extends TypeAdapter<Atom> {
+
+        private final LocationAdapter locationAdapter = new LocationAdapter();
+        private final ReactionAdapter reactionAdapter = new ReactionAdapter();
+
+        //The offsets to the bonded atoms of each atom read so far
+        private final IdentityHashMap<Atom, List<ILocation>> bondOffsets = new IdentityHashMap<>();
+
+        public Atom read(JsonReader reader) throws IOException {
+            //Boilerplate
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            EnumType type = null;
+            int state = 0;
+            List<ILocation> offsets = new ArrayList<>();
+            ILocation location = null;
+            ReactionData[] reactions = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "type":
+                        type = EnumType.valueOf(reader.nextString());
+                        break;
+                    case "state":
+                        state = reader.nextInt();
+                        break;
+                    case "bondsLocation":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            offsets.add(locationAdapter.read(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    case "location":
+                        location = locationAdapter.read(reader);
+                        break;
+                    case "reactions":
+                        List<ReactionData> list = new ArrayList<>();
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            list.add(reactionAdapter.read(reader));
+                        }
+                        reader.endArray();
+                        reactions = list.toArray(new ReactionData[list.size()]);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            Atom atom = reactions == null ? new Atom(type, state) : new Atom(type, state, reactions);
+            atom.setLocation(location);
+            bondOffsets.put(atom, offsets);
+            return atom;
+        }
+
+        public void write(JsonWriter writer, Atom value) throws IOException {
+            //Boilerplate
+            if (value == null) {
+                writer.nullValue();
+                return;
+            }
+
+            ILocation location = value.getLocation();
+
+            writer.beginObject();
+            writer.name("type").value(value.getType().name());
+            writer.name("state").value(value.getState());
+            writer.name("bondsLocation").beginArray();
+            for (Atom bondedAtom : value.getBonds()) {
+                locationAdapter.write(writer, bondedAtom.getLocation().subtract(location));
+            }
+            writer.endArray();
+            writer.name("location");
+            locationAdapter.write(writer, location);
+            writer.name("reactions").beginArray();
+            for (ReactionData rxn : value.getRawReactions()) {
+                reactionAdapter.write(writer, rxn);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+
+        /**
+         * Bonds the atoms which have been read, once they have all been added to the map
+         * Bonds are listed in the order they were saved
+         */
+        public void loadBonds(AbstractMap map) {
+            for (Atom atom : map.getAllAtoms()) {
+                List<ILocation> offsets = bondOffsets.get(atom);
+                if (offsets == null) {
+                    continue;
+                }
+
+                Atom[] bonds = new Atom[offsets.size()];
+                for (int i = 0; i < bonds.length; i++) {
+                    bonds[i] = map.getAtomAtLocation(atom.getLocation().add(offsets.get(i)));
+                    if (bonds[i] == null) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                atom.loadBonds(bonds);
+            }
+            bondOffsets.clear();
+        }
+    }
+
     /**
      * This allows a condensed notation for ReactionData
      */
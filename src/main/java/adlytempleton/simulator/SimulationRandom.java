@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.simulator;
+
+import java.util.Random;
+
+/**
+ * A fast, seedable random number generator for a single simulation, based on SplitMix64
+ * <p>
+ * This extends Random, so it can be passed to mutations and Collections.shuffle
+ * Unlike Random, it is not thread-safe: each thread must use its own instance
+ */
+public class SimulationRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    //Not initialized here, as Random's constructor sets it through setSeed before field initializers run
+    private long state;
+
+    /**
+     * Seeds from the clock
+     */
+    public SimulationRandom() {
+        this(System.nanoTime() ^ System.currentTimeMillis());
+    }
+
+    public SimulationRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Creates a SimulationRandom seeded with SimulatorConstants.RANDOM_SEED, or from the clock if it is not set
+     */
+    public static SimulationRandom fromConstants() {
+        return SimulatorConstants.RANDOM_SEED == null ? new SimulationRandom() : new SimulationRandom(SimulatorConstants.RANDOM_SEED);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -12,6 +12,8 @@
 
 package adlytempleton.simulator;
 
+import adlytempleton.map.UpdateOrder;
+
 /**
  * Created by ATempleton on 11/22/2015.
  */
@@ -28,6 +30,10 @@ public class SimulatorConstants {
 
     public static int MAP_SIZE = 150;
 
+    //Seed for the random number generator of each simulation
+    //If null, simulations are seeded from the clock and can not be reproduced
+    public static Long RANDOM_SEED = null;
+
     //The highest state a reaction can reach
     public static int MAX_STATE = 256;
 
@@ -41,8 +47,31 @@ public class SimulatorConstants {
 
     public static boolean TOROIDAL_MAP = false;
 
+    //Whether ticks are split into spatial tiles which are processed concurrently
+    //Maps too small to hold separate tiles are always simulated serially
+    public static boolean PARALLEL_TICK = false;
+
+    //The order in which atoms are moved each tick
+    public static UpdateOrder UPDATE_ORDER = UpdateOrder.SHUFFLE;
+
+    //The number of threads used by a parallel tick
+    public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    //Whether to store the map in lazily allocated tiles (see TiledMap), for very large and sparse worlds
+    //Ignored for toroidal maps
+    public static boolean TILED_MAP = false;
+
+    //Whether to keep the grid in a memory-mapped file (see MappedGridMap), for maps larger than the heap
+    //Ignored for toroidal and tiled maps
+    public static boolean MAPPED_GRID = false;
+
     //Whether actions of enzymes are blocked by membranes
     public static boolean MEMBRANE_BLOCKING = true;
+
+    //Whether an enzyme is blocked by any membrane which separates its compartment from a reactant (see CompartmentIndex)
+    //If false, an enzyme is only blocked by a membrane which lies on the line to a reactant
+    //Compartments are relabeled once at the start of each tick
+    public static boolean COMPARTMENT_BLOCKING = false;
     //The abundance of zero-state 'food' particles
     //This is the percentage of cells which, if empty, will contain food
     //(Not including double counting)
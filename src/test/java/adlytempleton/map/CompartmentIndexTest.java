@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.simulator.Serialization;
+import adlytempleton.simulator.SimulatorConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the labels kept by CompartmentIndex, which are mostly repaired, against a full relabel of the same membranes
+ */
+public class CompartmentIndexTest {
+
+    private static final int TICKS = 150;
+
+    private Long savedSeed;
+    private boolean savedBlocking;
+
+    @Before
+    public void setUp() {
+        savedSeed = SimulatorConstants.RANDOM_SEED;
+        savedBlocking = SimulatorConstants.COMPARTMENT_BLOCKING;
+        SimulatorConstants.RANDOM_SEED = 1L;
+        SimulatorConstants.COMPARTMENT_BLOCKING = true;
+    }
+
+    @After
+    public void tearDown() {
+        SimulatorConstants.RANDOM_SEED = savedSeed;
+        SimulatorConstants.COMPARTMENT_BLOCKING = savedBlocking;
+    }
+
+    @Test
+    public void repairedLabelsMatchRelabel() {
+        SquareMap map = Serialization.fromFile("cell.json", false);
+        Simulator simulator = new Simulator(map);
+        simulator.populateFood(map);
+
+        CompartmentIndex compartments = map.getCompartments();
+        for (int tick = 0; tick < TICKS; tick++) {
+            simulator.tick(tick);
+            compartments.update();
+
+            //Built after the update has taken the changed cells, so it takes none and labels the whole map
+            CompartmentIndex relabeled = new CompartmentIndex(map, map.getMembraneIndex());
+            relabeled.update();
+
+            assertEquals("Compartments after tick " + tick, relabeled.getCompartmentCount(), countLabels(compartments, map.getSize()));
+            assertSamePartition(tick, compartments, relabeled, map.getSize());
+            assertEquals("Cells after tick " + tick, relabeled.getCellCount(), compartments.getCellCount());
+        }
+    }
+
+    /**
+     * @return The number of distinct labels in use, which may be fewer than getCompartmentCount after a repair frees a label
+     */
+    private static int countLabels(CompartmentIndex compartments, int size) {
+        boolean[] used = new boolean[size * size];
+        int count = 0;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int label = compartments.getLabel(x, y);
+                if (label != CompartmentIndex.BOUNDARY && !used[label]) {
+                    used[label] = true;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fails unless both indices hold the same boundary cells, and their labels correspond one to one
+     */
+    private static void assertSamePartition(int tick, CompartmentIndex actual, CompartmentIndex expected, int size) {
+        int[] toExpected = new int[size * size];
+        int[] toActual = new int[size * size];
+        Arrays.fill(toExpected, CompartmentIndex.BOUNDARY);
+        Arrays.fill(toActual, CompartmentIndex.BOUNDARY);
+
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int actualLabel = actual.getLabel(x, y);
+                int expectedLabel = expected.getLabel(x, y);
+                if ((actualLabel == CompartmentIndex.BOUNDARY) != (expectedLabel == CompartmentIndex.BOUNDARY)) {
+                    fail("Boundary differs at " + x + ", " + y + " after tick " + tick);
+                }
+                if (actualLabel == CompartmentIndex.BOUNDARY) {
+                    continue;
+                }
+
+                if (toExpected[actualLabel] == CompartmentIndex.BOUNDARY && toActual[expectedLabel] == CompartmentIndex.BOUNDARY) {
+                    toExpected[actualLabel] = expectedLabel;
+                    toActual[expectedLabel] = actualLabel;
+                } else if (toExpected[actualLabel] != expectedLabel || toActual[expectedLabel] != actualLabel) {
+                    fail("Compartment differs at " + x + ", " + y + " after tick " + tick);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Adly Templeton
+ *
+ * This file is part of the AChem Simulator.
+ *
+ * The AChem Simulator is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * The AChem Simulator is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Foobar. If not, see http://www.gnu.org/licenses/.
+ */
+
+package adlytempleton.map;
+
+import adlytempleton.simulator.SimulatorConstants;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Exhaustively compares CrossingTable against SquareMap.crossedGeometry
+ */
+public class CrossingTableTest {
+
+    private static final int MAX_LENGTH = CrossingTable.MAX_LENGTH;
+
+    //The table covers second lines starting within 2 * MAX_LENGTH of the first. Two more units check that lines beyond are never crossed
+    private static final int REACH = 2 * MAX_LENGTH + 2;
+
+    @Test
+    public void crossedMatchesGeometry() {
+        //Including the far edges of a map, and locations far outside of one
+        int[] origins = new int[]{PackedLocation.ORIGIN, PackedLocation.pack(7, -3),
+                PackedLocation.pack(SimulatorConstants.MAP_SIZE - 1, SimulatorConstants.MAP_SIZE - 1), PackedLocation.pack(-1000, 1000)};
+
+        for (int origin : origins) {
+            assertEquals("Mismatches at " + PackedLocation.getX(origin) + ", " + PackedLocation.getY(origin), 0, countMismatches(origin));
+        }
+    }
+
+    /**
+     * @return The number of pairs of short lines, with the first starting at origin, where the table and the geometry disagree
+     */
+    private static int countMismatches(int origin) {
+        int mismatches = 0;
+
+        for (int lineX = -MAX_LENGTH; lineX <= MAX_LENGTH; lineX++) {
+            for (int lineY = -MAX_LENGTH; lineY <= MAX_LENGTH; lineY++) {
+                for (int startX = -REACH; startX <= REACH; startX++) {
+                    for (int startY = -REACH; startY <= REACH; startY++) {
+                        for (int endX = -MAX_LENGTH; endX <= MAX_LENGTH; endX++) {
+                            for (int endY = -MAX_LENGTH; endY <= MAX_LENGTH; endY++) {
+                                int loc12 = PackedLocation.add(origin, PackedLocation.pack(lineX, lineY));
+                                int loc21 = PackedLocation.add(origin, PackedLocation.pack(startX, startY));
+                                int loc22 = PackedLocation.add(loc21, PackedLocation.pack(endX, endY));
+
+                                for (int strict = 0; strict < 2; strict++) {
+                                    if (CrossingTable.crossed(origin, loc12, loc21, loc22, strict == 1) != SquareMap.crossedGeometry(origin, loc12, loc21, loc22, strict == 1)) {
+                                        mismatches++;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return mismatches;
+    }
+}